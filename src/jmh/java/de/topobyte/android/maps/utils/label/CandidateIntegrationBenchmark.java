@@ -0,0 +1,145 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Integration of query results into the label candidates as done by
+ * LabelDrawer.report(): results arrive in batches per query cell, new
+ * candidates are added, duplicates of known candidates are merged, limits are
+ * enforced and a snapshot is published.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CandidateIntegrationBenchmark
+{
+
+	private static final int NUM_CLASSES = 4;
+	private static final int BATCHES_PER_AXIS = 8;
+
+	@Param({ "1000", "10000", "100000" })
+	public int size;
+
+	@Param({ "objects", "compact" })
+	public String store;
+
+	private CityDataset dataset;
+	private List<int[]> batches;
+
+	// Holds all candidates, for measuring integration of duplicates
+	private CandidateStore filled;
+
+	@Setup
+	public void setup()
+	{
+		dataset = new CityDataset(size, NUM_CLASSES, 1);
+		batches = dataset.batches(BATCHES_PER_AXIS,
+				CityDataset.DEFAULT_WORLD_SIZE);
+		filled = create(store);
+		integrate(filled, null);
+	}
+
+	static CandidateStore create(String store)
+	{
+		if (store.equals("compact")) {
+			return new CompactLabelCandidates();
+		}
+		return new LabelCandidates();
+	}
+
+	private void integrate(CandidateStore candidates,
+			CandidateSnapshot snapshot)
+	{
+		for (int[] batch : batches) {
+			for (int i : batch) {
+				candidates.add(dataset.getClassId(i), dataset.copyLabel(i), 14);
+			}
+			candidates.setZoom(14);
+			candidates.evict();
+			if (snapshot != null) {
+				snapshot = snapshot.update(candidates);
+			}
+		}
+	}
+
+	/**
+	 * Integrate all candidates into an empty store.
+	 */
+	@Benchmark
+	public CandidateStore integrateNew()
+	{
+		CandidateStore candidates = create(store);
+		integrate(candidates, null);
+		return candidates;
+	}
+
+	/**
+	 * Integrate candidates that are all known already, as happens when the
+	 * same region is queried again.
+	 */
+	@Benchmark
+	public CandidateStore integrateDuplicates()
+	{
+		integrate(filled, null);
+		return filled;
+	}
+
+	/**
+	 * Integrate into an empty store with a limit that causes evictions.
+	 */
+	@Benchmark
+	public CandidateStore integrateWithEviction()
+	{
+		CandidateStore candidates = create(store);
+		candidates.setLimits(size / 4, Long.MAX_VALUE);
+		candidates.setViewport(0, 0, CityDataset.DEFAULT_WORLD_SIZE / 4,
+				CityDataset.DEFAULT_WORLD_SIZE / 4);
+		integrate(candidates, null);
+		return candidates;
+	}
+
+	/**
+	 * Integrate into an empty store and publish a snapshot after each batch.
+	 */
+	@Benchmark
+	public CandidateStore integrateAndPublish()
+	{
+		CandidateStore candidates = create(store);
+		integrate(candidates, new CandidateSnapshot());
+		return candidates;
+	}
+
+}
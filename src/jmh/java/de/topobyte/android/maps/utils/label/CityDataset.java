@@ -0,0 +1,233 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.infomatiq.jsi.Rectangle;
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Generates synthetic label data resembling a region with cities: labels are
+ * clustered around cluster centers with cluster sizes and name lengths
+ * following Zipf distributions. Some names occur repeatedly, as with real
+ * place names.
+ */
+public class CityDataset
+{
+
+	public static final int DEFAULT_WORLD_SIZE = 8192;
+
+	private static final int MIN_NAME_LENGTH = 3;
+	private static final int MAX_NAME_LENGTH = 32;
+
+	// Approximate width of a character and height of a label in pixels
+	private static final int CHAR_WIDTH = 7;
+	private static final int LABEL_HEIGHT = 16;
+
+	private final Label[] labels;
+	private final int[] classIds;
+
+	/**
+	 * @param n
+	 *            the number of labels.
+	 * @param numClasses
+	 *            the number of label classes, labels get assigned to classes
+	 *            by their importance within their cluster.
+	 */
+	public CityDataset(int n, int numClasses, long seed)
+	{
+		this(n, numClasses, seed, DEFAULT_WORLD_SIZE);
+	}
+
+	public CityDataset(int n, int numClasses, long seed, int worldSize)
+	{
+		Random random = new Random(seed);
+		labels = new Label[n];
+		classIds = new int[n];
+
+		int numClusters = Math.max(1, n / 50);
+		Zipf clusterSizes = new Zipf(numClusters, 1.0);
+		Zipf nameLengths = new Zipf(MAX_NAME_LENGTH - MIN_NAME_LENGTH + 1,
+				1.2);
+
+		int[] centerX = new int[numClusters];
+		int[] centerY = new int[numClusters];
+		int[] count = new int[numClusters];
+		for (int i = 0; i < numClusters; i++) {
+			centerX[i] = random.nextInt(worldSize);
+			centerY[i] = random.nextInt(worldSize);
+		}
+
+		// A pool of names, a quarter of the labels share their name with
+		// another label
+		String[] names = new String[Math.max(1, n * 3 / 4)];
+		for (int i = 0; i < names.length; i++) {
+			int length = MIN_NAME_LENGTH + nameLengths.sample(random);
+			names[i] = name(random, length);
+		}
+
+		for (int i = 0; i < n; i++) {
+			int cluster = clusterSizes.sample(random);
+			// Larger clusters spread further
+			double spread = 20 + 200 / Math.sqrt(cluster + 1);
+			int x = clamp((int) (centerX[cluster]
+					+ random.nextGaussian() * spread), worldSize);
+			int y = clamp((int) (centerY[cluster]
+					+ random.nextGaussian() * spread), worldSize);
+			String text = names[random.nextInt(names.length)];
+			// The first labels of a cluster are its most important ones
+			int importance = Math.min(numClasses - 1, count[cluster]++ / 8);
+			Label label = new Label(x, y, text, importance, i);
+			label.width = text.length() * CHAR_WIDTH + 8;
+			labels[i] = label;
+			classIds[i] = importance;
+		}
+	}
+
+	private static String name(Random random, int length)
+	{
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) ('a' + random.nextInt(26));
+		}
+		chars[0] = Character.toUpperCase(chars[0]);
+		return new String(chars);
+	}
+
+	private static int clamp(int value, int size)
+	{
+		return Math.max(0, Math.min(size - 1, value));
+	}
+
+	public int size()
+	{
+		return labels.length;
+	}
+
+	public Label getLabel(int i)
+	{
+		return labels[i];
+	}
+
+	public int getClassId(int i)
+	{
+		return classIds[i];
+	}
+
+	/**
+	 * Create a fresh copy of the label at the specified index, as a query
+	 * would return it.
+	 */
+	public Label copyLabel(int i)
+	{
+		Label label = labels[i];
+		Label copy = new Label(label.x, label.y, label.text, label.placeType,
+				label.id);
+		copy.width = label.width;
+		return copy;
+	}
+
+	/**
+	 * @return the box of the specified label, centered on its position.
+	 */
+	public static Rectangle box(Label label)
+	{
+		float x = label.x - label.width / 2f;
+		float y = label.y - LABEL_HEIGHT / 2f;
+		return new Rectangle(x, y, x + label.width, y + LABEL_HEIGHT);
+	}
+
+	public Rectangle[] boxes()
+	{
+		Rectangle[] boxes = new Rectangle[labels.length];
+		for (int i = 0; i < labels.length; i++) {
+			boxes[i] = box(labels[i]);
+		}
+		return boxes;
+	}
+
+	/**
+	 * Split the labels into batches by their position, like the results of
+	 * the cells of a tile-aligned query.
+	 * 
+	 * @return the label indices of each non-empty batch.
+	 */
+	public List<int[]> batches(int numBatchesPerAxis, int worldSize)
+	{
+		int cell = (worldSize + numBatchesPerAxis - 1) / numBatchesPerAxis;
+		List<TIntArrayList> lists = new ArrayList<>();
+		for (int i = 0; i < numBatchesPerAxis * numBatchesPerAxis; i++) {
+			lists.add(new TIntArrayList());
+		}
+		for (int i = 0; i < labels.length; i++) {
+			int cx = labels[i].x / cell;
+			int cy = labels[i].y / cell;
+			lists.get(cy * numBatchesPerAxis + cx).add(i);
+		}
+		List<int[]> batches = new ArrayList<>();
+		for (TIntArrayList list : lists) {
+			if (!list.isEmpty()) {
+				batches.add(list.toArray());
+			}
+		}
+		return batches;
+	}
+
+	/**
+	 * Samples ranks 0 to n - 1 with probability proportional to
+	 * 1 / (rank + 1)^s.
+	 */
+	private static class Zipf
+	{
+
+		private final double[] cumulative;
+
+		Zipf(int n, double s)
+		{
+			cumulative = new double[n];
+			double sum = 0;
+			for (int i = 0; i < n; i++) {
+				sum += 1 / Math.pow(i + 1, s);
+				cumulative[i] = sum;
+			}
+			for (int i = 0; i < n; i++) {
+				cumulative[i] /= sum;
+			}
+		}
+
+		int sample(Random random)
+		{
+			double value = random.nextDouble();
+			int low = 0, high = cumulative.length - 1;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (cumulative[mid] < value) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+
+	}
+
+}
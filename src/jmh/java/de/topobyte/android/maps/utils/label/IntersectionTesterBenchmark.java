@@ -0,0 +1,123 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.infomatiq.jsi.Rectangle;
+
+/**
+ * Throughput of adding rectangles to an intersection tester and of testing
+ * rectangles against a filled tester.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntersectionTesterBenchmark
+{
+
+	@Param({ "100", "1000", "10000", "100000" })
+	public int size;
+
+	@Param({ "grid", "rtree" })
+	public String tester;
+
+	private Rectangle[] boxes;
+	private Rectangle[] probes;
+
+	private RectangleIntersectionTester empty;
+	private RectangleIntersectionTester filled;
+
+	@Setup
+	public void setup()
+	{
+		CityDataset dataset = new CityDataset(size, 4, 1);
+		boxes = dataset.boxes();
+		probes = new CityDataset(size, 4, 2).boxes();
+
+		empty = create(tester);
+		filled = create(tester);
+		for (Rectangle box : boxes) {
+			filled.add(box, false);
+		}
+	}
+
+	static RectangleIntersectionTester create(String tester)
+	{
+		if (tester.equals("rtree")) {
+			return new RTreeIntersectionTester();
+		}
+		return new GridIntersectionTester();
+	}
+
+	@Benchmark
+	public RectangleIntersectionTester add()
+	{
+		empty.clear();
+		for (Rectangle box : boxes) {
+			empty.add(box, false);
+		}
+		return empty;
+	}
+
+	@Benchmark
+	public int isFree()
+	{
+		int free = 0;
+		for (Rectangle probe : probes) {
+			if (filled.isFree(probe)) {
+				free++;
+			}
+		}
+		return free;
+	}
+
+	/**
+	 * Add only the rectangles that do not intersect any previously added one,
+	 * which is the access pattern of label placement.
+	 */
+	@Benchmark
+	public int addIfFree()
+	{
+		empty.clear();
+		int added = 0;
+		for (Rectangle box : boxes) {
+			if (empty.isFree(box)) {
+				empty.add(box, false);
+				added++;
+			}
+		}
+		return added;
+	}
+
+}
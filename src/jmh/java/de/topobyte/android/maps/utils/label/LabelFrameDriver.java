@@ -0,0 +1,108 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.infomatiq.jsi.Rectangle;
+
+import de.topobyte.jeography.core.mapwindow.SteplessMapWindow;
+
+/**
+ * Performs the per-frame work of LabelDrawer.onDraw() and use() that does not
+ * involve the Android runtime: getting the query request for the viewport,
+ * querying the published candidates, placing them using an intersection
+ * tester and collecting label boxes from the pool used with allocation-free
+ * frames. Drawing, logging and posting render requests are not covered.
+ */
+public class LabelFrameDriver
+{
+
+	private final int numClasses;
+	private final SteplessMapWindow mapWindow;
+	private final CandidateSnapshot snapshot;
+	private final int minX, minY, maxX, maxY;
+
+	private final FrameRequestCache requests = new FrameRequestCache();
+	private final LabelBoxPool boxes = new LabelBoxPool();
+	private final GridIntersectionTester tester = new GridIntersectionTester();
+	private final List<LabelBox> basket = new ArrayList<>();
+
+	private final LabelVisitor visitor = new LabelVisitor() {
+
+		private final Rectangle box = new Rectangle();
+
+		@Override
+		public void visit(Label label)
+		{
+			if (label.width < 0) {
+				return;
+			}
+			float x = label.x - label.width / 2f;
+			float y = label.y - 8;
+			box.set(x, y, x + label.width, y + 16);
+			if (tester.isFree(box)) {
+				tester.add(box, true);
+				basket.add(boxes.create(label, box));
+			}
+		}
+
+	};
+
+	/**
+	 * Set up candidates from a synthetic dataset and a viewport of the
+	 * specified size centered on one of them.
+	 */
+	public LabelFrameDriver(SteplessMapWindow mapWindow, int size,
+			int numClasses)
+	{
+		this.mapWindow = mapWindow;
+		this.numClasses = numClasses;
+		CityDataset dataset = new CityDataset(size, numClasses, 1);
+		LabelCandidates candidates = new LabelCandidates();
+		for (int i = 0; i < dataset.size(); i++) {
+			candidates.add(dataset.getClassId(i), dataset.copyLabel(i), 14);
+		}
+		snapshot = new CandidateSnapshot().update(candidates);
+		boxes.setReuse(true);
+
+		Label center = dataset.getLabel(0);
+		minX = center.x - mapWindow.getWidth() / 2;
+		minY = center.y - mapWindow.getHeight() / 2;
+		maxX = minX + mapWindow.getWidth();
+		maxY = minY + mapWindow.getHeight();
+	}
+
+	/**
+	 * @return the number of labels placed.
+	 */
+	public int frame()
+	{
+		DataRequest request = requests.get(mapWindow, 0, true);
+		boxes.beginFrame();
+		basket.clear();
+		tester.clear();
+		for (int classId = 0; classId < numClasses; classId++) {
+			snapshot.query(classId, minX, minY, maxX, maxY, visitor);
+		}
+		return request.zoom + basket.size();
+	}
+
+}
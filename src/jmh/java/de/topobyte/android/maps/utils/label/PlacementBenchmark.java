@@ -0,0 +1,131 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.infomatiq.jsi.Rectangle;
+
+/**
+ * Greedy label placement as performed by a typical render() implementation:
+ * for each class in order of importance, retrieve the candidates within the
+ * viewport, order them and place each label whose box does not intersect any
+ * label placed before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlacementBenchmark
+{
+
+	private static final int NUM_CLASSES = 4;
+	private static final int VIEWPORT_WIDTH = 1080;
+	private static final int VIEWPORT_HEIGHT = 1920;
+
+	@Param({ "1000", "10000", "100000" })
+	public int size;
+
+	@Param({ "grid", "rtree" })
+	public String tester;
+
+	@Param({ "objects", "compact" })
+	public String store;
+
+	private CandidateSnapshot snapshot;
+	private RectangleIntersectionTester intersectionTester;
+	private int minX, minY, maxX, maxY;
+
+	private final List<Label> visible = new ArrayList<>();
+	private final Rectangle box = new Rectangle();
+
+	private static final Comparator<Label> ORDER = new Comparator<Label>() {
+
+		@Override
+		public int compare(Label a, Label b)
+		{
+			return Integer.compare(a.id, b.id);
+		}
+
+	};
+
+	@Setup
+	public void setup()
+	{
+		CityDataset dataset = new CityDataset(size, NUM_CLASSES, 1);
+		CandidateStore candidates = CandidateIntegrationBenchmark
+				.create(store);
+		for (int i = 0; i < dataset.size(); i++) {
+			candidates.add(dataset.getClassId(i), dataset.copyLabel(i), 14);
+		}
+		snapshot = new CandidateSnapshot().update(candidates);
+		intersectionTester = IntersectionTesterBenchmark.create(tester);
+
+		// Center the viewport on a label, likely within a large cluster
+		Label center = dataset.getLabel(0);
+		minX = center.x - VIEWPORT_WIDTH / 2;
+		minY = center.y - VIEWPORT_HEIGHT / 2;
+		maxX = minX + VIEWPORT_WIDTH;
+		maxY = minY + VIEWPORT_HEIGHT;
+	}
+
+	@Benchmark
+	public int place()
+	{
+		intersectionTester.clear();
+		int placed = 0;
+		for (int classId = 0; classId < NUM_CLASSES; classId++) {
+			visible.clear();
+			snapshot.query(classId, minX, minY, maxX, maxY, visible);
+			Collections.sort(visible, ORDER);
+			for (int i = 0; i < visible.size(); i++) {
+				Label label = visible.get(i);
+				if (label.width < 0) {
+					continue;
+				}
+				float x = label.x - label.width / 2f;
+				float y = label.y - 8;
+				box.set(x, y, x + label.width, y + 16);
+				if (intersectionTester.isFree(box)) {
+					intersectionTester.add(box, true);
+					placed++;
+				}
+			}
+		}
+		return placed;
+	}
+
+}
@@ -0,0 +1,300 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import de.topobyte.android.maps.utils.label.LabelFrameDriver;
+import de.topobyte.jeography.core.Tile;
+import de.topobyte.jeography.core.mapwindow.SteplessMapWindow;
+
+/**
+ * Checks that the per-frame work of the tile and label paths does not
+ * allocate memory once warmed up, by measuring the bytes allocated by the
+ * current thread using {@link com.sun.management.ThreadMXBean}. Exits with a
+ * non-zero status if any scenario allocates more than the allowed number of
+ * bytes per frame, which makes it usable as a regression check. Usage:
+ * 
+ * <pre>
+ * FrameAllocationCheck [options]
+ *   --frames &lt;n&gt;       frames to measure per scenario, default 20000
+ *   --max-bytes &lt;n&gt;    allowed bytes per frame, default 0
+ * </pre>
+ */
+public class FrameAllocationCheck
+{
+
+	private static final int WIDTH = 1080;
+	private static final int HEIGHT = 1920;
+	private static final double LON = 13.4;
+	private static final double LAT = 52.5;
+	private static final double ZOOM = 14.3;
+	private static final long FRAME_NANOS = 16 * 1000000L;
+	// Measurements per scenario, the lowest result counts so that one-off
+	// allocations by the runtime, e.g. during compilation, are ignored
+	private static final int ROUNDS = 3;
+
+	private interface Scenario
+	{
+
+		public void frame();
+
+	}
+
+	private static class CountingDrawer implements TileDrawer<Object>
+	{
+
+		int count = 0;
+
+		@Override
+		public void draw(Object image, int left, int top, int right,
+				int bottom)
+		{
+			count++;
+		}
+
+		@Override
+		public void draw(Object image, int srcLeft, int srcTop, int srcRight,
+				int srcBottom, int left, int top, int right, int bottom)
+		{
+			count++;
+		}
+
+	}
+
+	private final com.sun.management.ThreadMXBean threads;
+	private final long thread = Thread.currentThread().getId();
+
+	private int frames = 20000;
+	private double maxBytes = 0;
+
+	private final CountingDrawer drawer = new CountingDrawer();
+	private long nanos = 0;
+
+	public FrameAllocationCheck()
+	{
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		threads.setThreadAllocatedMemoryEnabled(true);
+	}
+
+	public static void main(String[] args)
+	{
+		FrameAllocationCheck check = new FrameAllocationCheck();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--frames")) {
+				check.frames = Integer.parseInt(args[++i]);
+			} else if (arg.equals("--max-bytes")) {
+				check.maxBytes = Double.parseDouble(args[++i]);
+			} else {
+				System.err.println(
+						"usage: FrameAllocationCheck [--frames <n>] [--max-bytes <n>]");
+				System.exit(2);
+			}
+		}
+
+		if (!check.threads.isThreadAllocatedMemorySupported()) {
+			System.out.println("FAILED: allocation measurement not supported");
+			System.exit(1);
+		}
+
+		boolean ok = true;
+		ok &= check.run("static tiles", check.staticTiles());
+		ok &= check.run("ancestor fallback", check.fallback(-3));
+		ok &= check.run("descendant fallback", check.fallback(2));
+		ok &= check.run("pan", check.pan());
+		ok &= check.run("pinch zoom", check.pinch());
+		ok &= check.run("label frame", check.labels());
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	private boolean run(String name, Scenario scenario)
+	{
+		// Warm up so that lazily created state and compilation do not count
+		for (int i = 0; i < frames; i++) {
+			scenario.frame();
+		}
+
+		// Calibrate the cost of measuring itself
+		long overhead = allocated();
+		overhead = allocated() - overhead;
+
+		long bytes = Long.MAX_VALUE;
+		for (int k = 0; k < ROUNDS; k++) {
+			long start = allocated();
+			for (int i = 0; i < frames; i++) {
+				scenario.frame();
+			}
+			bytes = Math.min(bytes, allocated() - start - overhead);
+		}
+
+		double perFrame = Math.max(0, bytes) / (double) frames;
+		boolean ok = perFrame <= maxBytes;
+		System.out.println(String.format(Locale.US,
+				"%s%-20s %10.2f bytes/frame", ok ? "" : "FAILED: ", name,
+				perFrame));
+		return ok;
+	}
+
+	private long allocated()
+	{
+		return threads.getThreadAllocatedBytes(thread);
+	}
+
+	private SteplessMapWindow createMapWindow(int tileSize)
+	{
+		SteplessMapWindow mapWindow = new SteplessMapWindow(WIDTH, HEIGHT,
+				ZOOM, LON, LAT);
+		mapWindow.setWorldScale(tileSize);
+		return mapWindow;
+	}
+
+	private TileRenderer<Object> createRenderer(TileImageSource<Object> source,
+			SteplessMapWindow mapWindow)
+	{
+		TileRenderer<Object> renderer = new TileRenderer<>(source);
+		renderer.setup(mapWindow);
+		return renderer;
+	}
+
+	private Scenario staticTiles()
+	{
+		final int tileSize = Tile.SIZE;
+		SteplessMapWindow mapWindow = createMapWindow(tileSize);
+		int zoom = (int) Math.round(ZOOM);
+		final TileRenderer<Object> renderer = createRenderer(
+				new StubTileImageSource(zoom, 0.8), mapWindow);
+		return new Scenario() {
+
+			@Override
+			public void frame()
+			{
+				renderer.render(drawer, tileSize, tileSize, nanos);
+				nanos += FRAME_NANOS;
+			}
+
+		};
+	}
+
+	/*
+	 * Tiles are only available on the level at the specified offset.
+	 */
+	private Scenario fallback(int levels)
+	{
+		final int tileSize = Tile.SIZE;
+		SteplessMapWindow mapWindow = createMapWindow(tileSize);
+		int zoom = (int) Math.round(ZOOM);
+		final TileRenderer<Object> renderer = createRenderer(
+				new StubTileImageSource(zoom + levels, 1), mapWindow);
+		return new Scenario() {
+
+			@Override
+			public void frame()
+			{
+				renderer.render(drawer, tileSize, tileSize, nanos);
+				nanos += FRAME_NANOS;
+			}
+
+		};
+	}
+
+	/*
+	 * Move back and forth across a few tiles, setting up the tile grid for
+	 * every frame as BaseMapView does and prefetching ahead of the motion.
+	 */
+	private Scenario pan()
+	{
+		final int tileSize = 2 * Tile.SIZE;
+		final SteplessMapWindow mapWindow = createMapWindow(tileSize);
+		int zoom = (int) Math.round(ZOOM);
+		final TileRenderer<Object> renderer = createRenderer(
+				new StubTileImageSource(zoom, 0.8), mapWindow);
+		return new Scenario() {
+
+			int frame = 0;
+
+			@Override
+			public void frame()
+			{
+				int dx = (frame++ / 100) % 2 == 0 ? 20 : -20;
+				renderer.getMotion().moved(dx, dx / 2, nanos);
+				mapWindow.move(dx, dx / 2);
+				renderer.setup(mapWindow);
+				renderer.getTileMapWindow();
+				renderer.render(drawer, tileSize, tileSize, nanos);
+				nanos += FRAME_NANOS;
+			}
+
+		};
+	}
+
+	/*
+	 * Zoom in and out across the switch to the next tile zoom level,
+	 * prefetching tiles of the next level.
+	 */
+	private Scenario pinch()
+	{
+		final int tileSize = Tile.SIZE;
+		final SteplessMapWindow mapWindow = createMapWindow(tileSize);
+		int zoom = (int) Math.round(ZOOM);
+		final TileRenderer<Object> renderer = createRenderer(
+				new StubTileImageSource(zoom, 0.8), mapWindow);
+		return new Scenario() {
+
+			int frame = 0;
+
+			@Override
+			public void frame()
+			{
+				float d = (frame++ / 30) % 2 == 0 ? 0.01f : -0.01f;
+				renderer.getMotion().zoomed(d, nanos);
+				MapGestures.zoom(mapWindow, WIDTH / 2, HEIGHT / 2, d);
+				renderer.setup(mapWindow);
+				renderer.getTileMapWindow();
+				renderer.render(drawer, tileSize, tileSize, nanos);
+				nanos += FRAME_NANOS;
+			}
+
+		};
+	}
+
+	/*
+	 * The per-frame bookkeeping of LabelDrawer that runs without the Android
+	 * runtime: reusing the query request, querying the candidates, placing
+	 * them and taking label boxes from the pool.
+	 */
+	private Scenario labels()
+	{
+		final LabelFrameDriver driver = new LabelFrameDriver(
+				createMapWindow(Tile.SIZE), 10000, 4);
+		return new Scenario() {
+
+			@Override
+			public void frame()
+			{
+				driver.frame();
+			}
+
+		};
+	}
+
+}
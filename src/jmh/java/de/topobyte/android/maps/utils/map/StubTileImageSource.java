@@ -0,0 +1,118 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import de.topobyte.jeography.core.Tile;
+
+/**
+ * A tile image source that stands in for an image manager. Tiles are
+ * available if they have been made available explicitly or, with the
+ * configured probability, based on a hash of their coordinates, so that
+ * availability is stable across frames. Requests for missing tiles are only
+ * counted.
+ */
+public class StubTileImageSource implements TileImageSource<Object>
+{
+
+	private static final Object IMAGE = new Object();
+
+	private final Set<Tile> available = new HashSet<>();
+	private final int availableZoom;
+	private final double probability;
+
+	private int requests = 0;
+	private int cancellations = 0;
+
+	/**
+	 * @param availableZoom
+	 *            the zoom level on which tiles are available with the
+	 *            specified probability, tiles on other levels are only
+	 *            available if added explicitly.
+	 */
+	public StubTileImageSource(int availableZoom, double probability)
+	{
+		this.availableZoom = availableZoom;
+		this.probability = probability;
+	}
+
+	public void add(Tile tile)
+	{
+		available.add(tile);
+	}
+
+	private boolean isAvailable(Tile tile)
+	{
+		if (tile.getZoom() == availableZoom) {
+			int hash = tile.getTx() * 0x9E3779B1 ^ tile.getTy() * 0x85EBCA6B;
+			hash ^= hash >>> 16;
+			if ((hash & 0xFFFF) < probability * 0x10000) {
+				return true;
+			}
+		}
+		return available.contains(tile);
+	}
+
+	@Override
+	public void cancelJobs()
+	{
+		cancellations++;
+	}
+
+	@Override
+	public boolean cancelJob(Tile tile)
+	{
+		cancellations++;
+		return true;
+	}
+
+	@Override
+	public void willNeed(Tile tile)
+	{
+		// nothing to do
+	}
+
+	@Override
+	public Object get(Tile tile, int priority)
+	{
+		if (isAvailable(tile)) {
+			return IMAGE;
+		}
+		requests++;
+		return null;
+	}
+
+	@Override
+	public Object getButDoNotProduce(Tile tile)
+	{
+		return isAvailable(tile) ? IMAGE : null;
+	}
+
+	public int getRequests()
+	{
+		return requests;
+	}
+
+	public int getCancellations()
+	{
+		return cancellations;
+	}
+
+}
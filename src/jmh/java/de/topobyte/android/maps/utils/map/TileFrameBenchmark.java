@@ -0,0 +1,209 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.topobyte.jeography.core.Tile;
+import de.topobyte.jeography.core.TileOnWindow;
+import de.topobyte.jeography.core.mapwindow.SteplessMapWindow;
+import de.topobyte.jeography.core.mapwindow.SteppedMapWindow;
+
+/**
+ * The per-frame work of {@link BaseMapView} on the tile path, using the
+ * {@link TileRenderer} with a stub image source and a drawer that only
+ * counts: enumerating the tiles of the window, computing priorities, looking
+ * up fallback tiles and rebuilding the tile window after the map window
+ * changed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TileFrameBenchmark
+{
+
+	private static final double LON = 13.4;
+	private static final double LAT = 52.5;
+	private static final double ZOOM = 14.3;
+
+	@Param({ "720x1280", "1080x1920", "1440x3200" })
+	public String screen;
+
+	@Param({ "1", "2", "3" })
+	public float magnification;
+
+	private SteplessMapWindow mapWindow;
+	private int tileSize;
+
+	// Most tiles available
+	private TileRenderer<Object> renderer;
+	// No tiles available on the current level, but on the level above
+	private TileRenderer<Object> fallbackUpper;
+	// No tiles available on the current and upper level, but on the level
+	// below
+	private TileRenderer<Object> fallbackLower;
+	// Tiles only available three levels above
+	private TileRenderer<Object> fallbackAncestor;
+	// Tiles only available two levels below
+	private TileRenderer<Object> fallbackDescendant;
+
+	private final CountingDrawer drawer = new CountingDrawer();
+
+	private static class CountingDrawer implements TileDrawer<Object>
+	{
+
+		int count = 0;
+
+		@Override
+		public void draw(Object image, int left, int top, int right,
+				int bottom)
+		{
+			count += right - left;
+		}
+
+		@Override
+		public void draw(Object image, int srcLeft, int srcTop, int srcRight,
+				int srcBottom, int left, int top, int right, int bottom)
+		{
+			count += right - left;
+		}
+
+	}
+
+	@Setup
+	public void setup()
+	{
+		int x = screen.indexOf('x');
+		int width = Integer.parseInt(screen.substring(0, x));
+		int height = Integer.parseInt(screen.substring(x + 1));
+
+		// Same split as BaseMapView.setMagnification()
+		float tileScaleFactor = Math.min(magnification, 2);
+		tileSize = Math.round(tileScaleFactor * Tile.SIZE);
+
+		mapWindow = new SteplessMapWindow(width, height, ZOOM, LON, LAT);
+		mapWindow.setWorldScale(tileSize);
+
+		int zoom = (int) Math.round(ZOOM);
+		renderer = new TileRenderer<Object>(
+				new StubTileImageSource(zoom, 0.8));
+		renderer.setup(mapWindow);
+
+		StubTileImageSource upper = new StubTileImageSource(zoom - 1, 1);
+		fallbackUpper = new TileRenderer<Object>(upper);
+		fallbackUpper.setup(mapWindow);
+
+		StubTileImageSource lower = new StubTileImageSource(zoom + 1, 1);
+		fallbackLower = new TileRenderer<Object>(lower);
+		fallbackLower.setup(mapWindow);
+
+		StubTileImageSource ancestor = new StubTileImageSource(zoom - 3, 1);
+		fallbackAncestor = new TileRenderer<Object>(ancestor);
+		fallbackAncestor.setup(mapWindow);
+
+		StubTileImageSource descendant = new StubTileImageSource(zoom + 2, 1);
+		fallbackDescendant = new TileRenderer<Object>(descendant);
+		fallbackDescendant.setup(mapWindow);
+	}
+
+	@Benchmark
+	public int enumerate()
+	{
+		int count = 0;
+		for (TileOnWindow tile : renderer.getTileMapWindow()) {
+			count += tile.getTx();
+		}
+		return count;
+	}
+
+	@Benchmark
+	public long priorities()
+	{
+		TilePriorityPolicy policy = renderer.getPriorityPolicy();
+		double scale = renderer.getTileScale();
+		long sum = 0;
+		for (TileOnWindow tile : renderer.getTileMapWindow()) {
+			sum += policy.getPriority(tile.getDX() * scale,
+					tile.getDY() * scale, tileSize * scale);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public int frame()
+	{
+		drawer.count = 0;
+		renderer.render(drawer, tileSize, tileSize);
+		return drawer.count;
+	}
+
+	@Benchmark
+	public int fallbackUpper()
+	{
+		drawer.count = 0;
+		fallbackUpper.render(drawer, tileSize, tileSize);
+		return drawer.count;
+	}
+
+	@Benchmark
+	public int fallbackLower()
+	{
+		drawer.count = 0;
+		fallbackLower.render(drawer, tileSize, tileSize);
+		return drawer.count;
+	}
+
+	@Benchmark
+	public int fallbackAncestor()
+	{
+		drawer.count = 0;
+		fallbackAncestor.render(drawer, tileSize, tileSize);
+		return drawer.count;
+	}
+
+	@Benchmark
+	public int fallbackDescendant()
+	{
+		drawer.count = 0;
+		fallbackDescendant.render(drawer, tileSize, tileSize);
+		return drawer.count;
+	}
+
+	@Benchmark
+	public SteppedMapWindow rebuildWindow()
+	{
+		renderer.setup(mapWindow);
+		return renderer.getTileMapWindow();
+	}
+
+}
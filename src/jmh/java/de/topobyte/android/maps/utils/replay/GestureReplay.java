@@ -0,0 +1,473 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.replay;
+
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import de.topobyte.android.maps.utils.label.LatencyHistogram;
+import de.topobyte.android.maps.utils.map.GestureEvent;
+import de.topobyte.android.maps.utils.map.GestureEvent.Type;
+import de.topobyte.android.maps.utils.map.GestureTrace;
+import de.topobyte.android.maps.utils.map.MapGestures;
+import de.topobyte.android.maps.utils.map.ScrollRegion;
+import de.topobyte.android.maps.utils.map.TileDrawer;
+import de.topobyte.android.maps.utils.map.TileRenderer;
+import de.topobyte.jeography.core.Tile;
+import de.topobyte.jeography.core.TileOnWindow;
+import de.topobyte.jeography.core.mapwindow.MapWindowChangeListener;
+import de.topobyte.jeography.core.mapwindow.SteplessMapWindow;
+
+/**
+ * Replays a {@link GestureTrace} against the tile and label pipeline on a
+ * plain JVM and reports frame time percentiles, the time until labels are
+ * available for a new viewport, the share of visible tiles missing and tile
+ * misses. Tiles are provided by a
+ * {@link SimulatedTileSource} and labels by a {@link SimulatedLabelPipeline}.
+ * 
+ * Frames are drawn every 16 ms of trace time, applying all gestures up to
+ * that time. Usage:
+ * 
+ * <pre>
+ * GestureReplay [options] &lt;trace file&gt;
+ *   --generate &lt;seconds&gt;  write a synthetic trace to the file first
+ *   --seed &lt;seed&gt;         seed for synthetic traces and labels
+ *   --speed &lt;factor&gt;      replay faster than recorded, default 1
+ *   --tile-ms &lt;ms&gt;        simulated time to produce a tile, default 20
+ *   --cell-ms &lt;ms&gt;        simulated time to query a label cell, default 5
+ *   --max-p95 &lt;ms&gt;        fail if the 95th percentile frame time is higher
+ *   --max-p99 &lt;ms&gt;        fail if the 99th percentile frame time is higher
+ *   --cancel-all           cancel all tile requests for each frame instead of
+ *                          scheduling them incrementally
+ *   --prefetch &lt;tiles&gt;    tiles to prefetch per frame while moving, default 8
+ *   --scroll-region        only draw exposed strips and loaded tiles, like a
+ *                          scrolling back buffer of the tile layer
+ * </pre>
+ */
+public class GestureReplay
+{
+
+	private static final int FRAME_MILLIS = 16;
+
+	private long seed = 1;
+	private double speed = 1;
+	private long tileMillis = 20;
+	private long cellMillis = 5;
+	private boolean cancelAll = false;
+	private int prefetch = 8;
+	private boolean scrollRegion = false;
+
+	private final LatencyHistogram frameTimes = new LatencyHistogram();
+	private final LatencyHistogram timesToLabels = new LatencyHistogram();
+	private long frames = 0;
+	private long tileMisses = 0;
+	private long tileLoads = 0;
+	private long tileCancellations = 0;
+	private long tileResubmissions = 0;
+	private long tilePixels = 0;
+	private long panFrames = 0;
+	private long panPixels = 0;
+	private long visibleTiles = 0;
+	private long missingTiles = 0;
+
+	// Set when the map window changed
+	private boolean changed = true;
+
+	public static void main(String[] args) throws IOException
+	{
+		GestureReplay replay = new GestureReplay();
+		String file = null;
+		int generate = 0;
+		double maxP95 = -1;
+		double maxP99 = -1;
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--generate")) {
+				generate = Integer.parseInt(args[++i]);
+			} else if (arg.equals("--seed")) {
+				replay.seed = Long.parseLong(args[++i]);
+			} else if (arg.equals("--speed")) {
+				replay.speed = Double.parseDouble(args[++i]);
+			} else if (arg.equals("--tile-ms")) {
+				replay.tileMillis = Long.parseLong(args[++i]);
+			} else if (arg.equals("--cell-ms")) {
+				replay.cellMillis = Long.parseLong(args[++i]);
+			} else if (arg.equals("--max-p95")) {
+				maxP95 = Double.parseDouble(args[++i]);
+			} else if (arg.equals("--max-p99")) {
+				maxP99 = Double.parseDouble(args[++i]);
+			} else if (arg.equals("--cancel-all")) {
+				replay.cancelAll = true;
+			} else if (arg.equals("--prefetch")) {
+				replay.prefetch = Integer.parseInt(args[++i]);
+			} else if (arg.equals("--scroll-region")) {
+				replay.scrollRegion = true;
+			} else {
+				file = arg;
+			}
+		}
+		if (file == null) {
+			System.err.println(
+					"usage: GestureReplay [--generate <seconds>] [--seed <seed>] [--speed <factor>] [--tile-ms <ms>] [--cell-ms <ms>] [--max-p95 <ms>] [--max-p99 <ms>] [--cancel-all] [--prefetch <tiles>] [--scroll-region] <trace file>");
+			System.exit(2);
+		}
+
+		if (generate > 0) {
+			GestureTrace trace = generate(generate * 1000, replay.seed);
+			try (Writer writer = new FileWriter(file)) {
+				trace.write(writer);
+			}
+		}
+
+		GestureTrace trace;
+		try (Reader reader = new FileReader(file)) {
+			trace = GestureTrace.read(reader);
+		}
+
+		replay.replay(trace);
+		replay.report();
+
+		boolean failed = false;
+		if (maxP95 >= 0 && replay.getFrameTime(0.95) > maxP95) {
+			System.out.println("FAILED: p95 frame time exceeds " + maxP95
+					+ " ms");
+			failed = true;
+		}
+		if (maxP99 >= 0 && replay.getFrameTime(0.99) > maxP99) {
+			System.out.println("FAILED: p99 frame time exceeds " + maxP99
+					+ " ms");
+			failed = true;
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	/*
+	 * Counts the pixels tiles would be drawn to, restricted to the dirty
+	 * rectangles of the region if set, like a TileBackBuffer does.
+	 */
+	private static class NoopDrawer implements TileDrawer<Object>
+	{
+
+		ScrollRegion region = null;
+		long pixels = 0;
+
+		@Override
+		public void draw(Object image, int left, int top, int right,
+				int bottom)
+		{
+			count(left, top, right, bottom);
+		}
+
+		@Override
+		public void draw(Object image, int srcLeft, int srcTop, int srcRight,
+				int srcBottom, int left, int top, int right, int bottom)
+		{
+			count(left, top, right, bottom);
+		}
+
+		private void count(int left, int top, int right, int bottom)
+		{
+			if (region == null) {
+				pixels += (long) (right - left) * (bottom - top);
+				return;
+			}
+			for (int i = 0; i < region.getNumRects(); i++) {
+				long w = Math.min(right, region.getRight(i))
+						- Math.max(left, region.getLeft(i));
+				long h = Math.min(bottom, region.getBottom(i))
+						- Math.max(top, region.getTop(i));
+				if (w > 0 && h > 0) {
+					pixels += w * h;
+				}
+			}
+		}
+
+	}
+
+	public void replay(GestureTrace trace)
+	{
+		SteplessMapWindow mapWindow = new SteplessMapWindow(trace.getWidth(),
+				trace.getHeight(), trace.getZoom(), trace.getLon(),
+				trace.getLat());
+		float magnification = trace.getMagnification();
+		mapWindow.setWorldScale(MapGestures.getTileSize(magnification));
+		mapWindow.addChangeListener(new MapWindowChangeListener() {
+
+			@Override
+			public void changed()
+			{
+				GestureReplay.this.changed = true;
+			}
+
+		});
+
+		SimulatedTileSource tiles = new SimulatedTileSource(tileMillis,
+				cacheSize(trace.getWidth(), trace.getHeight()));
+		TileRenderer<Object> renderer = new TileRenderer<Object>(tiles);
+		renderer.setIncrementalRequests(!cancelAll);
+		renderer.setPrefetchBudget(prefetch);
+		final NoopDrawer drawer = new NoopDrawer();
+		if (scrollRegion) {
+			final ScrollRegion region = new ScrollRegion();
+			drawer.region = region;
+			renderer.setDrawRegion(region);
+			tiles.setLoadListener(new SimulatedTileSource.LoadListener() {
+
+				@Override
+				public void loaded(Tile tile)
+				{
+					region.invalidate(tile);
+				}
+
+			});
+		}
+		SimulatedLabelPipeline labels = new SimulatedLabelPipeline(cellMillis,
+				seed);
+
+		List<GestureEvent> events = trace.getEvents();
+		long duration = events.isEmpty() ? 0
+				: events.get(events.size() - 1).getTime() + 1000;
+
+		int next = 0;
+		int[] lastCells = null;
+		int awaited = 0;
+		long awaitedSince = 0;
+
+		long realStart = System.nanoTime();
+		for (long time = 0; time <= duration; time += FRAME_MILLIS) {
+			// Pace the replay in real time, the label worker runs concurrently
+			long due = realStart + (long) (time / speed * 1000000);
+			long wait = due - System.nanoTime();
+			if (wait > 0) {
+				sleep(wait);
+			}
+
+			boolean panned = false;
+			boolean zoomed = false;
+			while (next < events.size() && events.get(next).getTime() <= time) {
+				GestureEvent event = events.get(next++);
+				panned |= event.getType() == Type.MOVE;
+				zoomed |= event.getType() != Type.MOVE;
+				long nanos = event.getTime() * 1000000;
+				if (event.getType() == Type.MOVE) {
+					int dx = Math.round(event.getX());
+					int dy = Math.round(event.getY());
+					renderer.getMotion().moved(dx, dy, nanos);
+					mapWindow.move(dx, dy);
+				} else if (event.getType() == Type.ZOOM) {
+					renderer.getMotion().zoomed(event.getValue(), nanos);
+					MapGestures.zoom(mapWindow, event.getX(), event.getY(),
+							event.getValue());
+				} else if (event.getType() == Type.MAGNIFICATION) {
+					magnification = event.getValue();
+					mapWindow.setWorldScale(
+							MapGestures.getTileSize(magnification));
+				}
+			}
+
+			tiles.advance(time);
+
+			long start = System.nanoTime();
+			if (changed) {
+				renderer.setup(mapWindow);
+				changed = false;
+			}
+			int tileSize = mapWindow.getWorldScale();
+			if (drawer.region != null) {
+				drawer.region.update(renderer);
+			}
+			long pixelsBefore = drawer.pixels;
+			renderer.render(drawer, tileSize, tileSize, time * 1000000);
+			if (panned && !zoomed) {
+				panFrames++;
+				panPixels += drawer.pixels - pixelsBefore;
+			}
+
+			// Viewport in label coordinates
+			double zoom = mapWindow.getZoom();
+			double scale = Math.pow(2, zoom - SimulatedLabelPipeline.LABEL_ZOOM)
+					* tileSize / 256;
+			long minX = worldX(mapWindow.getPositionLon(0));
+			long minY = worldY(mapWindow.getPositionLat(0));
+			long maxX = worldX(mapWindow.getPositionLon(mapWindow.getWidth()));
+			long maxY = worldY(
+					mapWindow.getPositionLat(mapWindow.getHeight()));
+
+			int izoom = (int) Math.round(zoom);
+			int shift = SimulatedLabelPipeline.LABEL_ZOOM - izoom + 8;
+			int[] cells = new int[] { izoom, (int) (minX >> shift),
+					(int) (minY >> shift), (int) (maxX >> shift),
+					(int) (maxY >> shift) };
+			if (lastCells == null || !Arrays.equals(cells, lastCells)) {
+				lastCells = cells;
+				int id = labels.post(izoom, minX, minY, maxX, maxY);
+				if (awaited == 0) {
+					awaitedSince = System.nanoTime();
+				}
+				awaited = id;
+			}
+			labels.place(minX, minY, maxX, maxY, scale);
+			long end = System.nanoTime();
+
+			frameTimes.record(end - start);
+			frames++;
+
+			for (TileOnWindow tile : renderer.getTileMapWindow()) {
+				visibleTiles++;
+				if (tiles.getButDoNotProduce(tile) == null) {
+					missingTiles++;
+				}
+			}
+
+			if (awaited != 0 && labels.getCompleted() >= awaited) {
+				timesToLabels.record(end - awaitedSince);
+				awaited = 0;
+			}
+		}
+
+		labels.destroy();
+		tileMisses = tiles.getMisses();
+		tileLoads = tiles.getLoads();
+		tileCancellations = tiles.getCancelled();
+		tileResubmissions = renderer.getScheduler().getResubmitted();
+		tilePixels = drawer.pixels;
+	}
+
+	private static int cacheSize(int width, int height)
+	{
+		int tiles = ((width + 255) / 256 + 1) * ((height + 255) / 256 + 1);
+		return (int) Math.ceil(tiles * 1.5);
+	}
+
+	private static long worldX(double lon)
+	{
+		double size = 256.0 * (1L << SimulatedLabelPipeline.LABEL_ZOOM);
+		return (long) ((lon + 180) / 360 * size);
+	}
+
+	private static long worldY(double lat)
+	{
+		double size = 256.0 * (1L << SimulatedLabelPipeline.LABEL_ZOOM);
+		double r = Math.toRadians(lat);
+		double y = (1 - Math.log(Math.tan(r) + 1 / Math.cos(r)) / Math.PI) / 2;
+		return (long) (y * size);
+	}
+
+	private static void sleep(long nanos)
+	{
+		try {
+			Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the specified percentile of frame times in milliseconds.
+	 */
+	public double getFrameTime(double p)
+	{
+		return percentile(frameTimes, p);
+	}
+
+	private static double percentile(LatencyHistogram histogram, double p)
+	{
+		long[] buckets = new long[LatencyHistogram.NUM_BUCKETS];
+		histogram.copyTo(buckets);
+		return LatencyHistogram.percentile(buckets, p) / 1e6;
+	}
+
+	public void report()
+	{
+		System.out.println(String.format(Locale.US, "frames: %d", frames));
+		System.out.println(String.format(Locale.US,
+				"frame time (ms): p50 %.3f, p95 %.3f, p99 %.3f, max %.3f",
+				percentile(frameTimes, 0.5), percentile(frameTimes, 0.95),
+				percentile(frameTimes, 0.99), frameTimes.getMax() / 1e6));
+		System.out.println(String.format(Locale.US,
+				"time to labels (ms): p50 %.3f, p95 %.3f, p99 %.3f, n %d",
+				percentile(timesToLabels, 0.5),
+				percentile(timesToLabels, 0.95),
+				percentile(timesToLabels, 0.99), timesToLabels.getCount()));
+		System.out.println(String.format(Locale.US,
+				"visible tiles missing: %.2f%%",
+				100.0 * missingTiles / Math.max(1, visibleTiles)));
+		System.out.println(String.format(Locale.US,
+				"tile misses: %d, tiles loaded: %d, requests cancelled: %d, resubmitted: %d",
+				tileMisses, tileLoads, tileCancellations, tileResubmissions));
+		System.out.println(String.format(Locale.US,
+				"tile pixels drawn per frame: %d, per panning frame: %d",
+				tilePixels / Math.max(1, frames),
+				panPixels / Math.max(1, panFrames)));
+	}
+
+	/**
+	 * Create a synthetic session of flings, pinch zooms and a magnification
+	 * change.
+	 */
+	public static GestureTrace generate(long millis, long seed)
+	{
+		Random random = new Random(seed);
+		GestureTrace trace = new GestureTrace();
+		int width = 1080;
+		int height = 1920;
+		trace.start(width, height, 13.4, 52.5, 14, 1);
+
+		long time = 0;
+		boolean magnified = false;
+		while (time < millis) {
+			int gesture = random.nextInt(10);
+			if (gesture < 6) {
+				// Fling with decaying velocity
+				double vx = random.nextGaussian() * 60;
+				double vy = random.nextGaussian() * 60;
+				for (int i = 0; i < 40 && time < millis; i++) {
+					trace.add(new GestureEvent(time, Type.MOVE,
+							(float) vx, (float) vy, 0));
+					vx *= 0.92;
+					vy *= 0.92;
+					time += FRAME_MILLIS;
+				}
+			} else if (gesture < 9) {
+				// Pinch around a point
+				float x = random.nextInt(width);
+				float y = random.nextInt(height);
+				float step = (random.nextBoolean() ? 1 : -1) * 0.04f;
+				for (int i = 0; i < 25 && time < millis; i++) {
+					trace.add(new GestureEvent(time, Type.ZOOM, x, y, step));
+					time += FRAME_MILLIS;
+				}
+			} else {
+				magnified = !magnified;
+				trace.add(new GestureEvent(time, Type.MAGNIFICATION, 0, 0,
+						magnified ? 1.5f : 1));
+			}
+			// Pause between gestures
+			time += 100 + random.nextInt(400);
+		}
+		return trace;
+	}
+
+}
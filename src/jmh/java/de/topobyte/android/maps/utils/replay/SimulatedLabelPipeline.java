@@ -0,0 +1,244 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.replay;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.infomatiq.jsi.Rectangle;
+import com.slimjars.dist.gnu.trove.set.hash.TLongHashSet;
+
+import de.topobyte.android.maps.utils.label.CandidateSnapshot;
+import de.topobyte.android.maps.utils.label.CandidateStore;
+import de.topobyte.android.maps.utils.label.GridIntersectionTester;
+import de.topobyte.android.maps.utils.label.Label;
+import de.topobyte.android.maps.utils.label.LabelCandidates;
+import de.topobyte.android.maps.utils.label.RectangleIntersectionTester;
+
+/**
+ * Stands in for the label pipeline of LabelDrawer without the Android
+ * runtime: a worker thread answers viewport requests by generating
+ * deterministic synthetic labels per query cell, taking a configurable time
+ * per cell not queried before, integrates them into a candidate store and
+ * publishes snapshots. The UI side places labels greedily from the most
+ * recent snapshot.
+ * 
+ * Labels are located in world pixel coordinates at zoom level
+ * {@link #LABEL_ZOOM}.
+ */
+public class SimulatedLabelPipeline
+{
+
+	public static final int LABEL_ZOOM = 20;
+
+	private static final int NUM_CLASSES = 4;
+	private static final int LABELS_PER_CELL = 12;
+	private static final int LABEL_HEIGHT = 16;
+	private static final int CHAR_WIDTH = 7;
+	private static final int MAX_CANDIDATES = 20000;
+
+	private final long cellMillis;
+	private final long seed;
+
+	private final Object sync = new Object();
+	private boolean running = true;
+	private int[] pending = null;
+	private int pendingId = 0;
+
+	private final CandidateStore candidates = new LabelCandidates();
+	private final TLongHashSet queried = new TLongHashSet();
+	private final AtomicReference<CandidateSnapshot> snapshot = new AtomicReference<>(
+			new CandidateSnapshot());
+	private volatile int completed = 0;
+
+	private final Thread thread;
+
+	// Used by place() on the UI side
+	private final RectangleIntersectionTester tester = new GridIntersectionTester();
+	private final List<Label> visible = new ArrayList<>();
+	private final Rectangle box = new Rectangle();
+
+	public SimulatedLabelPipeline(long cellMillis, long seed)
+	{
+		this.cellMillis = cellMillis;
+		this.seed = seed;
+		candidates.setLimits(MAX_CANDIDATES, Long.MAX_VALUE);
+		thread = new Thread(new Runnable() {
+
+			@Override
+			public void run()
+			{
+				work();
+			}
+
+		}, "simulated-query-worker");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Request the labels of the tile-aligned cells at the specified zoom level
+	 * covering the specified region. Supersedes any request not yet started.
+	 * 
+	 * @return the identifier of the request.
+	 */
+	public int post(int zoom, long minX, long minY, long maxX, long maxY)
+	{
+		int shift = LABEL_ZOOM - zoom + 8;
+		synchronized (sync) {
+			pending = new int[] { zoom, (int) (minX >> shift),
+					(int) (minY >> shift), (int) (maxX >> shift),
+					(int) (maxY >> shift) };
+			pendingId++;
+			sync.notifyAll();
+			return pendingId;
+		}
+	}
+
+	/**
+	 * @return the identifier of the most recent request whose results have
+	 *         been published.
+	 */
+	public int getCompleted()
+	{
+		return completed;
+	}
+
+	public void destroy()
+	{
+		synchronized (sync) {
+			running = false;
+			sync.notifyAll();
+		}
+	}
+
+	private void work()
+	{
+		while (true) {
+			int[] request;
+			int id;
+			synchronized (sync) {
+				while (running && pending == null) {
+					try {
+						sync.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (!running) {
+					return;
+				}
+				request = pending;
+				id = pendingId;
+				pending = null;
+			}
+			execute(request);
+			completed = id;
+		}
+	}
+
+	private void execute(int[] request)
+	{
+		int zoom = request[0];
+		boolean changed = false;
+		for (int cy = request[2]; cy <= request[4]; cy++) {
+			for (int cx = request[1]; cx <= request[3]; cx++) {
+				long key = ((long) zoom << 58) ^ ((long) cx << 29) ^ cy;
+				if (queried.contains(key)) {
+					continue;
+				}
+				queried.add(key);
+				simulateQuery();
+				generate(zoom, cx, cy, key);
+				changed = true;
+			}
+		}
+		if (changed) {
+			candidates.setZoom(zoom);
+			snapshot.get().applyViewport(candidates);
+			candidates.evict();
+			snapshot.set(snapshot.get().update(candidates));
+		}
+	}
+
+	private void simulateQuery()
+	{
+		if (cellMillis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(cellMillis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void generate(int zoom, int cx, int cy, long key)
+	{
+		Random random = new Random(seed ^ key);
+		int shift = LABEL_ZOOM - zoom + 8;
+		long size = 1L << shift;
+		for (int i = 0; i < LABELS_PER_CELL; i++) {
+			int x = (int) ((long) cx * size + (long) (random.nextDouble() * size));
+			int y = (int) ((long) cy * size + (long) (random.nextDouble() * size));
+			int length = 3 + Math.min(20, (int) (-Math.log(random.nextDouble()) * 5));
+			char[] chars = new char[length];
+			for (int k = 0; k < length; k++) {
+				chars[k] = (char) ('a' + random.nextInt(26));
+			}
+			int classId = Math.min(NUM_CLASSES - 1, i / 3);
+			Label label = new Label(x, y, new String(chars), classId, i);
+			label.width = length * CHAR_WIDTH + 8;
+			candidates.add(classId, label, zoom);
+		}
+	}
+
+	/**
+	 * Place labels greedily within the viewport given in world pixel
+	 * coordinates at {@link #LABEL_ZOOM}, scaled to the screen by the
+	 * specified factor.
+	 * 
+	 * @return the number of labels placed.
+	 */
+	public int place(long minX, long minY, long maxX, long maxY, double scale)
+	{
+		CandidateSnapshot candidates = snapshot.get();
+		tester.clear();
+		int placed = 0;
+		for (int classId = 0; classId < NUM_CLASSES; classId++) {
+			visible.clear();
+			candidates.query(classId, (int) minX, (int) minY, (int) maxX,
+					(int) maxY, visible);
+			for (int i = 0; i < visible.size(); i++) {
+				Label label = visible.get(i);
+				float x = (float) ((label.x - minX) * scale) - label.width / 2f;
+				float y = (float) ((label.y - minY) * scale)
+						- LABEL_HEIGHT / 2f;
+				box.set(x, y, x + label.width, y + LABEL_HEIGHT);
+				if (tester.isFree(box)) {
+					tester.add(box, true);
+					placed++;
+				}
+			}
+		}
+		return placed;
+	}
+
+}
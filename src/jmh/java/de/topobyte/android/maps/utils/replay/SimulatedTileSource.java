@@ -0,0 +1,225 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.replay;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import de.topobyte.android.maps.utils.map.TileImageSource;
+import de.topobyte.jeography.core.Tile;
+
+/**
+ * Simulates an image manager: requested tiles are produced one after another
+ * in order of priority by a single worker, each taking a fixed amount of
+ * simulated time, and kept in a cache of limited size. Time only advances
+ * through {@link #advance(long)}, so runs are deterministic.
+ */
+public class SimulatedTileSource implements TileImageSource<Object>
+{
+
+	private static final Object IMAGE = new Object();
+
+	private static class Job implements Comparable<Job>
+	{
+
+		final Tile tile;
+		final int priority;
+		final long sequence;
+
+		Job(Tile tile, int priority, long sequence)
+		{
+			this.tile = tile;
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Job other)
+		{
+			if (priority != other.priority) {
+				return Integer.compare(priority, other.priority);
+			}
+			return Long.compare(sequence, other.sequence);
+		}
+
+	}
+
+	/**
+	 * Gets notified about each tile that finished loading.
+	 */
+	public interface LoadListener
+	{
+
+		public void loaded(Tile tile);
+
+	}
+
+	private final long loadMillis;
+	private final int cacheSize;
+
+	private final LinkedHashMap<Tile, Object> cache;
+	private final PriorityQueue<Job> queue = new PriorityQueue<>();
+	private final Map<Tile, Job> queued = new HashMap<>();
+	private Job current = null;
+	private long currentDone = 0;
+	private long sequence = 0;
+	private long now = 0;
+
+	private long misses = 0;
+	private long loads = 0;
+	private long cancelled = 0;
+
+	private LoadListener loadListener = null;
+
+	public SimulatedTileSource(long loadMillis, int cacheSize)
+	{
+		this.loadMillis = loadMillis;
+		this.cacheSize = cacheSize;
+		cache = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	public void setLoadListener(LoadListener loadListener)
+	{
+		this.loadListener = loadListener;
+	}
+
+	/**
+	 * Advance the simulated time, completing the jobs that finish until then.
+	 */
+	public void advance(long time)
+	{
+		while (true) {
+			if (current == null) {
+				current = queue.poll();
+				if (current == null) {
+					break;
+				}
+				queued.remove(current.tile);
+				currentDone = Math.max(currentDone, now) + loadMillis;
+			}
+			if (currentDone > time) {
+				break;
+			}
+			cache.put(current.tile, IMAGE);
+			loads++;
+			trimCache();
+			if (loadListener != null) {
+				loadListener.loaded(current.tile);
+			}
+			now = currentDone;
+			current = null;
+		}
+		now = time;
+	}
+
+	private void trimCache()
+	{
+		Iterator<Tile> iterator = cache.keySet().iterator();
+		while (cache.size() > cacheSize && iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+	@Override
+	public void cancelJobs()
+	{
+		cancelled += queue.size();
+		queue.clear();
+		queued.clear();
+	}
+
+	/**
+	 * Cancel the job for the specified tile if it is queued.
+	 */
+	@Override
+	public boolean cancelJob(Tile tile)
+	{
+		Job job = queued.remove(tile);
+		if (job == null) {
+			return false;
+		}
+		queue.remove(job);
+		cancelled++;
+		return true;
+	}
+
+	@Override
+	public void willNeed(Tile tile)
+	{
+		// Refresh the tile's position in the cache
+		cache.get(tile);
+	}
+
+	@Override
+	public Object get(Tile tile, int priority)
+	{
+		Object image = cache.get(tile);
+		if (image != null) {
+			return image;
+		}
+		misses++;
+		if (current != null && current.tile.equals(tile)) {
+			return null;
+		}
+		Job job = queued.get(tile);
+		if (job != null) {
+			if (job.priority == priority) {
+				return null;
+			}
+			queue.remove(job);
+		}
+		job = new Job(tile, priority, sequence++);
+		queue.add(job);
+		queued.put(tile, job);
+		return null;
+	}
+
+	@Override
+	public Object getButDoNotProduce(Tile tile)
+	{
+		return cache.get(tile);
+	}
+
+	/**
+	 * @return the number of requests for tiles that were not available.
+	 */
+	public long getMisses()
+	{
+		return misses;
+	}
+
+	public long getLoads()
+	{
+		return loads;
+	}
+
+	public long getCancelled()
+	{
+		return cancelled;
+	}
+
+	public int getQueueSize()
+	{
+		return queue.size();
+	}
+
+}
@@ -0,0 +1,231 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.Arrays;
+
+import com.slimjars.dist.gnu.trove.map.hash.TIntObjectHashMap;
+import com.slimjars.dist.gnu.trove.set.hash.TLongHashSet;
+
+/**
+ * Base class for candidate stores that implements tracking of the viewport,
+ * the selection of candidates for eviction and tracking of changed cells.
+ */
+public abstract class AbstractCandidateStore implements CandidateStore
+{
+
+	// After exceeding a limit, evict down to this fraction of the limit
+	private static final float EVICTION_TARGET = 0.9f;
+
+	private int maxCount = Integer.MAX_VALUE;
+	private long maxBytes = Long.MAX_VALUE;
+	private long evictions = 0;
+
+	// The current viewport and zoom level
+	private boolean hasViewport = false;
+	private int vMinX, vMinY, vMaxX, vMaxY;
+	private int zoom = 0;
+
+	// Reused during eviction
+	private float[] scores = new float[0];
+
+	// Cells whose candidates changed since the last clearChanges()
+	private final TIntObjectHashMap<TLongHashSet> changedCells = new TIntObjectHashMap<>();
+	private boolean allChanged = false;
+
+	private static final long[] NO_CELLS = new long[0];
+
+	@Override
+	public void setLimits(int maxCount, long maxBytes)
+	{
+		this.maxCount = maxCount;
+		this.maxBytes = maxBytes;
+	}
+
+	@Override
+	public void setZoom(int zoom)
+	{
+		this.zoom = zoom;
+	}
+
+	@Override
+	public void setViewport(int minX, int minY, int maxX, int maxY)
+	{
+		hasViewport = true;
+		vMinX = minX;
+		vMinY = minY;
+		vMaxX = maxX;
+		vMaxY = maxY;
+	}
+
+	@Override
+	public int evict()
+	{
+		int size = size();
+		long bytes = getBytes();
+		if (size <= maxCount && bytes <= maxBytes) {
+			return 0;
+		}
+
+		int targetCount = (int) Math.min(size, maxCount * EVICTION_TARGET);
+		long targetBytes = (long) Math.min(bytes, maxBytes * EVICTION_TARGET);
+		// Number of candidates to evict, estimated from average size
+		int n = size - targetCount;
+		if (bytes > targetBytes) {
+			long average = bytes / size;
+			n = (int) Math.max(n, (bytes - targetBytes + average - 1)
+					/ Math.max(1, average));
+		}
+
+		// Collect the scores of all evictable candidates
+		if (scores.length < size) {
+			scores = new float[size];
+		}
+		int numScores = collectScores(scores);
+		if (numScores == 0) {
+			return 0;
+		}
+		n = Math.min(n, numScores);
+
+		// Evict the n candidates with the highest scores
+		Arrays.sort(scores, 0, numScores);
+		float threshold = scores[numScores - n];
+		int evicted = evict(n, threshold);
+		evictions += evicted;
+		return evicted;
+	}
+
+	/**
+	 * Store the scores of all candidates with a score greater than 0 in the
+	 * specified array.
+	 * 
+	 * @return the number of scores stored.
+	 */
+	protected abstract int collectScores(float[] scores);
+
+	/**
+	 * Evict up to n candidates whose score is at least the threshold.
+	 * 
+	 * @return the number of candidates evicted.
+	 */
+	protected abstract int evict(int n, float threshold);
+
+	/**
+	 * Compute how far a candidate is away from the viewport and zoom level.
+	 * The distance from the viewport is measured in multiples of the
+	 * viewport's size, each zoom level of difference adds one.
+	 * 
+	 * @return a positive value or 0 if the candidate is visible.
+	 */
+	protected float score(int x, int y, int labelZoom)
+	{
+		float score = Math.abs(labelZoom - zoom);
+		if (!hasViewport) {
+			return score;
+		}
+		long dx = 0, dy = 0;
+		if (x < vMinX) {
+			dx = (long) vMinX - x;
+		} else if (x > vMaxX) {
+			dx = (long) x - vMaxX;
+		}
+		if (y < vMinY) {
+			dy = (long) vMinY - y;
+		} else if (y > vMaxY) {
+			dy = (long) y - vMaxY;
+		}
+		if (dx == 0 && dy == 0) {
+			// Never evict visible candidates
+			return 0;
+		}
+		long extent = Math.max(1,
+				Math.max((long) vMaxX - vMinX, (long) vMaxY - vMinY));
+		return score + (float) Math.sqrt(dx * (double) dx + dy * (double) dy)
+				/ extent;
+	}
+
+	@Override
+	public long getEvictions()
+	{
+		return evictions;
+	}
+
+	/**
+	 * Record that candidates of the specified class within the cell with the
+	 * specified key changed.
+	 */
+	protected void markChanged(int classId, long cellKey)
+	{
+		if (allChanged) {
+			return;
+		}
+		TLongHashSet cells = changedCells.get(classId);
+		if (cells == null) {
+			cells = new TLongHashSet();
+			changedCells.put(classId, cells);
+		}
+		cells.add(cellKey);
+	}
+
+	/**
+	 * Record a change that potentially affects all candidates.
+	 */
+	protected void markAllChanged()
+	{
+		allChanged = true;
+		changedCells.clear();
+	}
+
+	@Override
+	public boolean hasChanges()
+	{
+		return allChanged || !changedCells.isEmpty();
+	}
+
+	@Override
+	public boolean isAllChanged()
+	{
+		return allChanged;
+	}
+
+	@Override
+	public int[] getChangedClassIds()
+	{
+		return changedCells.keys();
+	}
+
+	@Override
+	public long[] getChangedCells(int classId)
+	{
+		TLongHashSet cells = changedCells.get(classId);
+		return cells == null ? NO_CELLS : cells.toArray();
+	}
+
+	@Override
+	public void clearChanges()
+	{
+		allChanged = false;
+		changedCells.clear();
+	}
+
+	protected static long cellKey(int cx, int cy)
+	{
+		return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+	}
+
+}
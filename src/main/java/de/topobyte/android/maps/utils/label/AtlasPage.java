@@ -0,0 +1,110 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+
+/**
+ * A page of a {@link LabelAtlas}. Label images are packed into horizontal
+ * shelves from top to bottom. Space is never reused within a page, instead the
+ * whole page is reclaimed once none of its labels are in use anymore.
+ */
+class AtlasPage
+{
+
+	final Bitmap bitmap;
+	final Canvas canvas;
+	final int width;
+	final int height;
+
+	// The labels stored on this page
+	final List<LabelImage> images = new ArrayList<>();
+
+	int lastFrame;
+
+	// Shelves, stored as (y, height, next free x) triples
+	private int[] shelves = new int[3 * 8];
+	private int numShelves = 0;
+	private int nextY = 0;
+
+	AtlasPage(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+		bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		canvas = new Canvas(bitmap);
+	}
+
+	int getBytes()
+	{
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+	/**
+	 * Find space for an image of the specified size.
+	 * 
+	 * @return whether there has been enough space on this page. If so, the
+	 *         region has been stored in the out parameter.
+	 */
+	boolean allocate(int w, int h, Rect out)
+	{
+		// Find the shelf with the least wasted height that still has room
+		int best = -1;
+		int bestWaste = Integer.MAX_VALUE;
+		for (int i = 0; i < numShelves; i++) {
+			int sh = shelves[i * 3 + 1];
+			int sx = shelves[i * 3 + 2];
+			if (sh < h || sx + w > width) {
+				continue;
+			}
+			int waste = sh - h;
+			if (waste < bestWaste) {
+				best = i;
+				bestWaste = waste;
+			}
+		}
+
+		if (best < 0) {
+			if (nextY + h > height || w > width) {
+				return false;
+			}
+			if (numShelves * 3 == shelves.length) {
+				int[] bigger = new int[shelves.length * 2];
+				System.arraycopy(shelves, 0, bigger, 0, shelves.length);
+				shelves = bigger;
+			}
+			best = numShelves++;
+			shelves[best * 3] = nextY;
+			shelves[best * 3 + 1] = h;
+			shelves[best * 3 + 2] = 0;
+			nextY += h;
+		}
+
+		int x = shelves[best * 3 + 2];
+		int y = shelves[best * 3];
+		shelves[best * 3 + 2] = x + w;
+		out.set(x, y, x + w, y + h);
+		return true;
+	}
+
+}
@@ -0,0 +1,404 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.slimjars.dist.gnu.trove.map.hash.TIntObjectHashMap;
+
+/**
+ * An immutable copy of the label candidates of a {@link CandidateStore}. The
+ * attributes of the candidates are stored in parallel primitive arrays per
+ * grid cell. New snapshots are derived from the previous one and only copy the
+ * cells the store reports as changed, sharing all other cells, so that they
+ * can be published to the UI thread cheaply while the store keeps being
+ * modified by the workers.
+ * 
+ * Candidates are passed to visitors as a single reused {@link Label} instance
+ * owned by the snapshot. Visitors must not keep references to it and must not
+ * modify it. Queries must not be made by multiple threads at once.
+ * 
+ * Queries record the queried region as the current viewport, which is shared
+ * by all snapshots derived from each other. Use {@link #applyViewport} to
+ * transfer it to the store before evicting candidates.
+ */
+public class CandidateSnapshot
+{
+
+	// The viewport, written by the UI thread and read by the workers
+	private static class Viewport
+	{
+
+		volatile boolean valid = false;
+		volatile int minX, minY, maxX, maxY;
+
+	}
+
+	// The candidates of a grid cell
+	private static class CellSnapshot
+	{
+
+		final int[] x;
+		final int[] y;
+		final int[] width;
+		final int[] placeType;
+		final int[] id;
+		final String[] text;
+
+		CellSnapshot(int n)
+		{
+			x = new int[n];
+			y = new int[n];
+			width = new int[n];
+			placeType = new int[n];
+			id = new int[n];
+			text = new String[n];
+		}
+
+	}
+
+	private static class ClassSnapshot
+	{
+
+		// Sorted keys of occupied cells and the cells' candidates
+		final long[] keys;
+		final CellSnapshot[] cells;
+		final int size;
+
+		ClassSnapshot(long[] keys, CellSnapshot[] cells, int size)
+		{
+			this.keys = keys;
+			this.cells = cells;
+			this.size = size;
+		}
+
+	}
+
+	// Copies the candidates of a cell visited in the store
+	private static class CellBuilder implements LabelVisitor
+	{
+
+		private int n = 0;
+		private int[] x = new int[16];
+		private int[] y = new int[16];
+		private int[] width = new int[16];
+		private int[] placeType = new int[16];
+		private int[] id = new int[16];
+		private String[] text = new String[16];
+
+		@Override
+		public void visit(Label label)
+		{
+			if (n == x.length) {
+				int capacity = 2 * n;
+				x = Arrays.copyOf(x, capacity);
+				y = Arrays.copyOf(y, capacity);
+				width = Arrays.copyOf(width, capacity);
+				placeType = Arrays.copyOf(placeType, capacity);
+				id = Arrays.copyOf(id, capacity);
+				text = Arrays.copyOf(text, capacity);
+			}
+			x[n] = label.x;
+			y[n] = label.y;
+			width[n] = label.width;
+			placeType[n] = label.placeType;
+			id[n] = label.id;
+			text[n] = label.text;
+			n++;
+		}
+
+		CellSnapshot build()
+		{
+			CellSnapshot cell = new CellSnapshot(n);
+			System.arraycopy(x, 0, cell.x, 0, n);
+			System.arraycopy(y, 0, cell.y, 0, n);
+			System.arraycopy(width, 0, cell.width, 0, n);
+			System.arraycopy(placeType, 0, cell.placeType, 0, n);
+			System.arraycopy(id, 0, cell.id, 0, n);
+			System.arraycopy(text, 0, cell.text, 0, n);
+			Arrays.fill(text, 0, n, null);
+			n = 0;
+			return cell;
+		}
+
+	}
+
+	private final int cellSize;
+	private final Viewport viewport;
+	private final TIntObjectHashMap<ClassSnapshot> classes;
+	private final int size;
+
+	// Passed to visitors
+	private final Label flyweight = new Label(0, 0, null, 0, 0);
+
+	public CandidateSnapshot()
+	{
+		this(LabelCandidates.DEFAULT_CELL_SIZE, new Viewport(),
+				new TIntObjectHashMap<ClassSnapshot>(), 0);
+	}
+
+	private CandidateSnapshot(int cellSize, Viewport viewport,
+			TIntObjectHashMap<ClassSnapshot> classes, int size)
+	{
+		this.cellSize = cellSize;
+		this.viewport = viewport;
+		this.classes = classes;
+		this.size = size;
+	}
+
+	/**
+	 * Create a new snapshot that reflects the changes the store recorded since
+	 * the last snapshot has been created from it and clear the store's
+	 * changes. Only the changed cells are copied, all other cells are shared
+	 * with this snapshot. Falls back to {@link #rebuild(CandidateStore)} if
+	 * the store does not know which cells changed.
+	 */
+	public CandidateSnapshot update(CandidateStore store)
+	{
+		if (store.isAllChanged() || store.getCellSize() != cellSize) {
+			return rebuild(store);
+		}
+		if (!store.hasChanges()) {
+			return this;
+		}
+
+		TIntObjectHashMap<ClassSnapshot> updated = new TIntObjectHashMap<>();
+		for (int classId : classes.keys()) {
+			updated.put(classId, classes.get(classId));
+		}
+		int updatedSize = size;
+
+		CellBuilder builder = new CellBuilder();
+		for (int classId : store.getChangedClassIds()) {
+			long[] changed = store.getChangedCells(classId);
+			Arrays.sort(changed);
+			ClassSnapshot previous = classes.get(classId);
+			ClassSnapshot snapshot = merge(store, classId, previous, changed,
+					builder);
+			updatedSize -= previous == null ? 0 : previous.size;
+			if (snapshot == null) {
+				updated.remove(classId);
+			} else {
+				updated.put(classId, snapshot);
+				updatedSize += snapshot.size;
+			}
+		}
+		store.clearChanges();
+		return new CandidateSnapshot(cellSize, viewport, updated,
+				updatedSize);
+	}
+
+	/**
+	 * Create a new snapshot with copies of all candidates of the store, for
+	 * example after the store has been replaced, and clear the store's
+	 * changes.
+	 */
+	public CandidateSnapshot rebuild(CandidateStore store)
+	{
+		TIntObjectHashMap<ClassSnapshot> updated = new TIntObjectHashMap<>();
+		int updatedSize = 0;
+		CellBuilder builder = new CellBuilder();
+		for (int classId : store.getClassIds()) {
+			long[] cells = store.getCells(classId);
+			Arrays.sort(cells);
+			ClassSnapshot snapshot = merge(store, classId, null, cells,
+					builder);
+			if (snapshot != null) {
+				updated.put(classId, snapshot);
+				updatedSize += snapshot.size;
+			}
+		}
+		store.clearChanges();
+		return new CandidateSnapshot(store.getCellSize(), viewport, updated,
+				updatedSize);
+	}
+
+	/*
+	 * Merge the cells of the previous snapshot of a class with copies of the
+	 * specified cells taken from the store.
+	 * 
+	 * @return the new snapshot or null if the class has no candidates.
+	 */
+	private static ClassSnapshot merge(CandidateStore store, int classId,
+			ClassSnapshot previous, long[] changed, CellBuilder builder)
+	{
+		int numPrevious = previous == null ? 0 : previous.keys.length;
+		long[] keys = new long[numPrevious + changed.length];
+		CellSnapshot[] cells = new CellSnapshot[keys.length];
+		int n = 0;
+		int size = 0;
+		int i = 0;
+		int k = 0;
+		while (i < numPrevious || k < changed.length) {
+			if (k == changed.length
+					|| (i < numPrevious && previous.keys[i] < changed[k])) {
+				keys[n] = previous.keys[i];
+				cells[n] = previous.cells[i++];
+				size += cells[n++].x.length;
+				continue;
+			}
+			long key = changed[k++];
+			if (i < numPrevious && previous.keys[i] == key) {
+				// Replaced by the current contents of the cell
+				i++;
+			}
+			store.forEachInCell(classId, key, builder);
+			CellSnapshot cell = builder.build();
+			if (cell.x.length == 0) {
+				continue;
+			}
+			keys[n] = key;
+			cells[n++] = cell;
+			size += cell.x.length;
+		}
+		if (n == 0) {
+			return null;
+		}
+		return new ClassSnapshot(Arrays.copyOf(keys, n),
+				Arrays.copyOf(cells, n), size);
+	}
+
+	/**
+	 * Transfer the viewport recorded by the most recent query to the store.
+	 */
+	public void applyViewport(CandidateStore store)
+	{
+		if (viewport.valid) {
+			store.setViewport(viewport.minX, viewport.minY, viewport.maxX,
+					viewport.maxY);
+		}
+	}
+
+	/**
+	 * @return the identifiers of all label classes that have candidates.
+	 */
+	public int[] getClassIds()
+	{
+		return classes.keys();
+	}
+
+	/**
+	 * Visit all candidates of the specified class.
+	 */
+	public void forEach(int classId, LabelVisitor visitor)
+	{
+		ClassSnapshot snapshot = classes.get(classId);
+		if (snapshot == null) {
+			return;
+		}
+		for (CellSnapshot cell : snapshot.cells) {
+			visit(cell, Integer.MIN_VALUE, Integer.MIN_VALUE,
+					Integer.MAX_VALUE, Integer.MAX_VALUE, visitor);
+		}
+	}
+
+	/**
+	 * Add copies of all candidates of the specified class located within the
+	 * specified rectangle (bounds inclusive) to the output list.
+	 */
+	public void query(int classId, int minX, int minY, int maxX, int maxY,
+			final List<Label> out)
+	{
+		query(classId, minX, minY, maxX, maxY, new LabelVisitor() {
+
+			@Override
+			public void visit(Label label)
+			{
+				Label copy = new Label(label.x, label.y, label.text,
+						label.placeType, label.id);
+				copy.width = label.width;
+				out.add(copy);
+			}
+
+		});
+	}
+
+	/**
+	 * Visit all candidates of the specified class located within the specified
+	 * rectangle (bounds inclusive).
+	 */
+	public void query(int classId, int minX, int minY, int maxX, int maxY,
+			LabelVisitor visitor)
+	{
+		viewport.minX = minX;
+		viewport.minY = minY;
+		viewport.maxX = maxX;
+		viewport.maxY = maxY;
+		viewport.valid = true;
+
+		ClassSnapshot snapshot = classes.get(classId);
+		if (snapshot == null) {
+			return;
+		}
+
+		int cx1 = cell(minX);
+		int cx2 = cell(maxX);
+		int cy1 = cell(minY);
+		int cy2 = cell(maxY);
+
+		long numCells = ((long) cx2 - cx1 + 1) * ((long) cy2 - cy1 + 1);
+		if (numCells > snapshot.keys.length) {
+			// Fewer occupied cells than cells in the query region, scan all
+			for (CellSnapshot cell : snapshot.cells) {
+				visit(cell, minX, minY, maxX, maxY, visitor);
+			}
+			return;
+		}
+
+		for (int cx = cx1; cx <= cx2; cx++) {
+			for (int cy = cy1; cy <= cy2; cy++) {
+				int cell = Arrays.binarySearch(snapshot.keys,
+						AbstractCandidateStore.cellKey(cx, cy));
+				if (cell >= 0) {
+					visit(snapshot.cells[cell], minX, minY, maxX, maxY,
+							visitor);
+				}
+			}
+		}
+	}
+
+	private void visit(CellSnapshot cell, int minX, int minY, int maxX,
+			int maxY, LabelVisitor visitor)
+	{
+		for (int i = 0; i < cell.x.length; i++) {
+			int x = cell.x[i];
+			int y = cell.y[i];
+			if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+				flyweight.x = x;
+				flyweight.y = y;
+				flyweight.width = cell.width[i];
+				flyweight.placeType = cell.placeType[i];
+				flyweight.id = cell.id[i];
+				flyweight.text = cell.text[i];
+				visitor.visit(flyweight);
+			}
+		}
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	private int cell(int coordinate)
+	{
+		return (int) Math.floor((double) coordinate / cellSize);
+	}
+
+}
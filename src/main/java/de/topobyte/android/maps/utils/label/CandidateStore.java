@@ -0,0 +1,173 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.List;
+
+/**
+ * Stores label candidates per label class and allows retrieving the
+ * candidates within some region.
+ * 
+ * Coordinates are specified in the coordinate system of {@link Label#x} and
+ * {@link Label#y}. The number of candidates can be limited using
+ * {@link #setLimits(int, long)}. If the limit is exceeded, the candidates
+ * farthest away from the current viewport and zoom level are evicted first.
+ * The viewport is the region of the most recent query, candidates within it
+ * are never evicted.
+ * 
+ * Candidates are indexed in a grid of square cells. Stores keep track of the
+ * cells whose candidates changed, so that a {@link CandidateSnapshot} only
+ * needs to copy those cells.
+ * 
+ * Implementations are not required to be thread-safe.
+ */
+public interface CandidateStore
+{
+
+	/**
+	 * Add a candidate that has been retrieved for the specified zoom level
+	 * unless an equal candidate is already known. In that case, the known
+	 * candidate takes over the zoom level, so that it is considered as recent
+	 * as a new one for eviction, and its width is updated if the new one has
+	 * a width. Stores do not keep a reference to the specified label.
+	 * 
+	 * @return whether the candidate has been added.
+	 */
+	public boolean add(int classId, Label label, int zoom);
+
+	/**
+	 * @return the identifiers of all label classes that have candidates.
+	 */
+	public int[] getClassIds();
+
+	/**
+	 * Return the candidates of the specified class in a new array. The Label
+	 * objects remain valid when the store is modified later on. They may be
+	 * the instances held by the store, so callers must not modify them.
+	 */
+	public Label[] toArray(int classId);
+
+	/**
+	 * Visit all candidates of the specified class.
+	 */
+	public void forEach(int classId, LabelVisitor visitor);
+
+	/**
+	 * @return the size of the grid cells candidates are indexed in.
+	 */
+	public int getCellSize();
+
+	/**
+	 * @return the keys of all cells of the specified class that contain
+	 *         candidates, see {@link AbstractCandidateStore#cellKey(int, int)}.
+	 */
+	public long[] getCells(int classId);
+
+	/**
+	 * Visit all candidates of the specified class within the cell with the
+	 * specified key.
+	 */
+	public void forEachInCell(int classId, long cellKey, LabelVisitor visitor);
+
+	/**
+	 * @return whether any candidates changed since the last call of
+	 *         {@link #clearChanges()}.
+	 */
+	public boolean hasChanges();
+
+	/**
+	 * @return whether the changes since the last call of
+	 *         {@link #clearChanges()} potentially affect all candidates, in
+	 *         which case changed cells are not tracked individually.
+	 */
+	public boolean isAllChanged();
+
+	/**
+	 * @return the identifiers of all label classes with changed cells.
+	 */
+	public int[] getChangedClassIds();
+
+	/**
+	 * @return the keys of the cells of the specified class in which
+	 *         candidates have been added, removed or changed their width.
+	 */
+	public long[] getChangedCells(int classId);
+
+	/**
+	 * Forget about the changes made so far.
+	 */
+	public void clearChanges();
+
+	/**
+	 * Visit all candidates of the specified class located within the
+	 * specified rectangle (bounds inclusive).
+	 */
+	public void query(int classId, int minX, int minY, int maxX, int maxY,
+			LabelVisitor visitor);
+
+	/**
+	 * Add all candidates of the specified class located within the specified
+	 * rectangle (bounds inclusive) to the output list.
+	 */
+	public void query(int classId, int minX, int minY, int maxX, int maxY,
+			List<Label> out);
+
+	/**
+	 * Set the current viewport, which is otherwise defined by the most recent
+	 * query.
+	 */
+	public void setViewport(int minX, int minY, int maxX, int maxY);
+
+	/**
+	 * Set the width of all candidates to -1.
+	 */
+	public void resetWidths();
+
+	/**
+	 * Limit the number of candidates and their estimated memory usage. Use
+	 * {@link #evict()} to enforce the limits.
+	 */
+	public void setLimits(int maxCount, long maxBytes);
+
+	public void setZoom(int zoom);
+
+	/**
+	 * If any of the limits is exceeded, evict candidates that are far away
+	 * from the current viewport and zoom level until the number of candidates
+	 * and their memory usage are a bit below the limits. Candidates within the
+	 * current viewport are never evicted.
+	 * 
+	 * @return the number of evicted candidates.
+	 */
+	public int evict();
+
+	public int size();
+
+	/**
+	 * @return the estimated memory usage of the candidates.
+	 */
+	public long getBytes();
+
+	/**
+	 * @return the total number of candidates evicted so far.
+	 */
+	public long getEvictions();
+
+	public void clear();
+
+}
@@ -0,0 +1,579 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+import com.slimjars.dist.gnu.trove.map.hash.TIntObjectHashMap;
+import com.slimjars.dist.gnu.trove.map.hash.TLongObjectHashMap;
+import com.slimjars.dist.gnu.trove.map.hash.TObjectIntHashMap;
+import com.slimjars.dist.gnu.trove.procedure.TIntObjectProcedure;
+
+/**
+ * A candidate store that keeps the attributes of its candidates in parallel
+ * primitive arrays instead of one {@link Label} object per candidate. Texts
+ * are interned in a string table shared by all label classes, so that
+ * repeated names are stored only once.
+ * 
+ * Candidates are passed to visitors as a single reused {@link Label}
+ * instance. Visitors must not keep references to it and changes made to it
+ * are not written back. Use {@link #setWidth(int, Label, int)} to update the
+ * width of a candidate.
+ * 
+ * This class is not thread-safe, callers need to synchronize access.
+ */
+public class CompactLabelCandidates extends AbstractCandidateStore
+{
+
+	// Memory occupied by a candidate in the arrays and indexes
+	private static final int ENTRY_BYTES = 48;
+	// Rough estimate of the memory occupied by an interned string without its
+	// characters
+	private static final int STRING_BYTES = 64;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private class Columns
+	{
+
+		int n = 0;
+		int[] x = new int[INITIAL_CAPACITY];
+		int[] y = new int[INITIAL_CAPACITY];
+		int[] width = new int[INITIAL_CAPACITY];
+		int[] placeType = new int[INITIAL_CAPACITY];
+		int[] id = new int[INITIAL_CAPACITY];
+		int[] text = new int[INITIAL_CAPACITY];
+		int[] zoom = new int[INITIAL_CAPACITY];
+
+		// Open addressing hash table of candidate indices, -1 marks free
+		// slots
+		int[] slots = newSlots(2 * INITIAL_CAPACITY);
+
+		final TLongObjectHashMap<TIntArrayList> cells = new TLongObjectHashMap<>();
+
+		int find(int px, int py, int ptext)
+		{
+			int mask = slots.length - 1;
+			for (int s = hash(px, py, ptext) & mask;; s = (s + 1) & mask) {
+				int i = slots[s];
+				if (i < 0) {
+					return -1 - s;
+				}
+				if (x[i] == px && y[i] == py && text[i] == ptext) {
+					return i;
+				}
+			}
+		}
+
+		void append(Label label, int ptext, int pzoom)
+		{
+			if (n == x.length) {
+				int capacity = 2 * n;
+				x = Arrays.copyOf(x, capacity);
+				y = Arrays.copyOf(y, capacity);
+				width = Arrays.copyOf(width, capacity);
+				placeType = Arrays.copyOf(placeType, capacity);
+				id = Arrays.copyOf(id, capacity);
+				text = Arrays.copyOf(text, capacity);
+				zoom = Arrays.copyOf(zoom, capacity);
+			}
+			x[n] = label.x;
+			y[n] = label.y;
+			width[n] = label.width;
+			placeType[n] = label.placeType;
+			id[n] = label.id;
+			text[n] = ptext;
+			zoom[n] = pzoom;
+			n++;
+		}
+
+		void rebuildIndex()
+		{
+			int capacity = 2 * INITIAL_CAPACITY;
+			while (capacity < 2 * n) {
+				capacity *= 2;
+			}
+			if (slots.length == capacity) {
+				Arrays.fill(slots, -1);
+			} else {
+				slots = newSlots(capacity);
+			}
+			int mask = capacity - 1;
+			for (int i = 0; i < n; i++) {
+				int s = hash(x[i], y[i], text[i]) & mask;
+				while (slots[s] >= 0) {
+					s = (s + 1) & mask;
+				}
+				slots[s] = i;
+			}
+			cells.clear();
+			for (int i = 0; i < n; i++) {
+				addToCell(this, i);
+			}
+		}
+
+		void load(int i, Label label)
+		{
+			label.x = x[i];
+			label.y = y[i];
+			label.width = width[i];
+			label.placeType = placeType[i];
+			label.id = id[i];
+			label.text = text[i] < 0 ? null : strings.get(text[i]);
+			label.zoom = zoom[i];
+		}
+
+	}
+
+	// Used to remove empty classes while evicting
+	private final TIntObjectProcedure<Columns> nonEmptyClasses = new TIntObjectProcedure<Columns>() {
+
+		@Override
+		public boolean execute(int classId, Columns columns)
+		{
+			return columns.n > 0;
+		}
+
+	};
+
+	private final int cellSize;
+
+	private final TIntObjectHashMap<Columns> classes = new TIntObjectHashMap<>();
+	private int size = 0;
+	private long stringBytes = 0;
+
+	// Interned texts of all candidates
+	private final List<String> strings = new ArrayList<>();
+	private final TObjectIntHashMap<String> stringIndices = new TObjectIntHashMap<>();
+
+	// Passed to visitors
+	private final Label flyweight = new Label(0, 0, null, 0, 0);
+
+	public CompactLabelCandidates()
+	{
+		this(LabelCandidates.DEFAULT_CELL_SIZE);
+	}
+
+	public CompactLabelCandidates(int cellSize)
+	{
+		this.cellSize = cellSize;
+	}
+
+	@Override
+	public int getCellSize()
+	{
+		return cellSize;
+	}
+
+	@Override
+	public boolean add(int classId, Label label, int zoom)
+	{
+		Columns columns = classes.get(classId);
+		if (columns == null) {
+			columns = new Columns();
+			classes.put(classId, columns);
+		}
+
+		int text = intern(label.text);
+		int slot = columns.find(label.x, label.y, text);
+		if (slot >= 0) {
+			// Queried again, so keep it as long as a new candidate
+			columns.zoom[slot] = zoom;
+			if (label.width >= 0 && label.width != columns.width[slot]) {
+				columns.width[slot] = label.width;
+				markChanged(classId, cellKey(columns, slot));
+			}
+			return false;
+		}
+		columns.slots[-1 - slot] = columns.n;
+		columns.append(label, text, zoom);
+		addToCell(columns, columns.n - 1);
+		markChanged(classId, cellKey(columns, columns.n - 1));
+		size++;
+
+		if (2 * columns.n > columns.slots.length) {
+			columns.rebuildIndex();
+		}
+		return true;
+	}
+
+	/**
+	 * Update the width of the stored candidate equal to the specified label.
+	 * 
+	 * @return whether such a candidate exists.
+	 */
+	public boolean setWidth(int classId, Label label, int width)
+	{
+		Columns columns = classes.get(classId);
+		if (columns == null) {
+			return false;
+		}
+		int text = label.text == null ? -1 : index(label.text);
+		if (label.text != null && text < 0) {
+			return false;
+		}
+		int i = columns.find(label.x, label.y, text);
+		if (i < 0) {
+			return false;
+		}
+		if (columns.width[i] != width) {
+			columns.width[i] = width;
+			markChanged(classId, cellKey(columns, i));
+		}
+		return true;
+	}
+
+	private int intern(String text)
+	{
+		if (text == null) {
+			return -1;
+		}
+		int index = index(text);
+		if (index >= 0) {
+			return index;
+		}
+		index = strings.size();
+		strings.add(text);
+		stringIndices.put(text, index);
+		stringBytes += STRING_BYTES + 2 * text.length();
+		return index;
+	}
+
+	private int index(String text)
+	{
+		if (!stringIndices.containsKey(text)) {
+			return -1;
+		}
+		return stringIndices.get(text);
+	}
+
+	private long cellKey(Columns columns, int i)
+	{
+		return cellKey(cell(columns.x[i]), cell(columns.y[i]));
+	}
+
+	private void addToCell(Columns columns, int i)
+	{
+		long key = cellKey(columns, i);
+		TIntArrayList cell = columns.cells.get(key);
+		if (cell == null) {
+			cell = new TIntArrayList();
+			columns.cells.put(key, cell);
+		}
+		cell.add(i);
+	}
+
+	@Override
+	protected int collectScores(float[] scores)
+	{
+		int numScores = 0;
+		for (Columns columns : classes.valueCollection()) {
+			for (int i = 0; i < columns.n; i++) {
+				float score = score(columns.x[i], columns.y[i],
+						columns.zoom[i]);
+				if (score > 0) {
+					scores[numScores++] = score;
+				}
+			}
+		}
+		return numScores;
+	}
+
+	@Override
+	protected int evict(int n, float threshold)
+	{
+		int evicted = 0;
+		for (int classId : classes.keys()) {
+			Columns columns = classes.get(classId);
+			// Compact the arrays in place
+			int kept = 0;
+			for (int i = 0; i < columns.n; i++) {
+				if (evicted < n && score(columns.x[i], columns.y[i],
+						columns.zoom[i]) >= threshold) {
+					evicted++;
+					markChanged(classId, cellKey(columns, i));
+					continue;
+				}
+				if (kept != i) {
+					columns.x[kept] = columns.x[i];
+					columns.y[kept] = columns.y[i];
+					columns.width[kept] = columns.width[i];
+					columns.placeType[kept] = columns.placeType[i];
+					columns.id[kept] = columns.id[i];
+					columns.text[kept] = columns.text[i];
+					columns.zoom[kept] = columns.zoom[i];
+				}
+				kept++;
+			}
+			if (kept != columns.n) {
+				columns.n = kept;
+				columns.rebuildIndex();
+			}
+		}
+		classes.retainEntries(nonEmptyClasses);
+		size -= evicted;
+		if (evicted > 0) {
+			compactStrings();
+		}
+		return evicted;
+	}
+
+	/**
+	 * Remove texts from the string table that are no longer referenced and
+	 * renumber the remaining ones.
+	 */
+	private void compactStrings()
+	{
+		int[] mapping = new int[strings.size()];
+		Arrays.fill(mapping, -1);
+		for (Columns columns : classes.valueCollection()) {
+			for (int i = 0; i < columns.n; i++) {
+				if (columns.text[i] >= 0) {
+					mapping[columns.text[i]] = 0;
+				}
+			}
+		}
+
+		int kept = 0;
+		stringIndices.clear();
+		stringBytes = 0;
+		for (int i = 0; i < mapping.length; i++) {
+			if (mapping[i] < 0) {
+				continue;
+			}
+			String text = strings.get(i);
+			strings.set(kept, text);
+			stringIndices.put(text, kept);
+			stringBytes += STRING_BYTES + 2 * text.length();
+			mapping[i] = kept++;
+		}
+		for (int i = strings.size() - 1; i >= kept; i--) {
+			strings.remove(i);
+		}
+
+		for (Columns columns : classes.valueCollection()) {
+			for (int i = 0; i < columns.n; i++) {
+				if (columns.text[i] >= 0) {
+					columns.text[i] = mapping[columns.text[i]];
+				}
+			}
+			// Hashes depend on the text indices
+			columns.rebuildIndex();
+		}
+	}
+
+	@Override
+	public int[] getClassIds()
+	{
+		return classes.keys();
+	}
+
+	/**
+	 * Return copies of the candidates of the specified class.
+	 */
+	@Override
+	public Label[] toArray(int classId)
+	{
+		Columns columns = classes.get(classId);
+		if (columns == null) {
+			return new Label[0];
+		}
+		Label[] labels = new Label[columns.n];
+		for (int i = 0; i < columns.n; i++) {
+			labels[i] = new Label(0, 0, null, 0, 0);
+			columns.load(i, labels[i]);
+		}
+		return labels;
+	}
+
+	@Override
+	public void forEach(int classId, LabelVisitor visitor)
+	{
+		Columns columns = classes.get(classId);
+		if (columns == null) {
+			return;
+		}
+		for (int i = 0; i < columns.n; i++) {
+			columns.load(i, flyweight);
+			visitor.visit(flyweight);
+		}
+	}
+
+	@Override
+	public long[] getCells(int classId)
+	{
+		Columns columns = classes.get(classId);
+		if (columns == null) {
+			return new long[0];
+		}
+		return columns.cells.keys();
+	}
+
+	@Override
+	public void forEachInCell(int classId, long cellKey, LabelVisitor visitor)
+	{
+		Columns columns = classes.get(classId);
+		if (columns == null) {
+			return;
+		}
+		TIntArrayList cell = columns.cells.get(cellKey);
+		if (cell == null) {
+			return;
+		}
+		for (int k = 0; k < cell.size(); k++) {
+			columns.load(cell.getQuick(k), flyweight);
+			visitor.visit(flyweight);
+		}
+	}
+
+	@Override
+	public void resetWidths()
+	{
+		for (Columns columns : classes.valueCollection()) {
+			Arrays.fill(columns.width, 0, columns.n, -1);
+		}
+		markAllChanged();
+	}
+
+	/**
+	 * Add copies of the matching candidates to the output list.
+	 */
+	@Override
+	public void query(int classId, int minX, int minY, int maxX, int maxY,
+			final List<Label> out)
+	{
+		query(classId, minX, minY, maxX, maxY, new LabelVisitor() {
+
+			@Override
+			public void visit(Label label)
+			{
+				Label copy = new Label(label.x, label.y, label.text,
+						label.placeType, label.id);
+				copy.width = label.width;
+				copy.zoom = label.zoom;
+				out.add(copy);
+			}
+
+		});
+	}
+
+	@Override
+	public void query(int classId, int minX, int minY, int maxX, int maxY,
+			LabelVisitor visitor)
+	{
+		setViewport(minX, minY, maxX, maxY);
+
+		Columns columns = classes.get(classId);
+		if (columns == null) {
+			return;
+		}
+
+		int cx1 = cell(minX);
+		int cx2 = cell(maxX);
+		int cy1 = cell(minY);
+		int cy2 = cell(maxY);
+
+		long numCells = ((long) cx2 - cx1 + 1) * ((long) cy2 - cy1 + 1);
+		if (numCells > columns.cells.size()) {
+			// Fewer occupied cells than cells in the query region, scan all
+			for (int i = 0; i < columns.n; i++) {
+				visit(columns, i, minX, minY, maxX, maxY, visitor);
+			}
+			return;
+		}
+
+		for (int cx = cx1; cx <= cx2; cx++) {
+			for (int cy = cy1; cy <= cy2; cy++) {
+				TIntArrayList cell = columns.cells.get(cellKey(cx, cy));
+				if (cell == null) {
+					continue;
+				}
+				for (int k = 0; k < cell.size(); k++) {
+					visit(columns, cell.getQuick(k), minX, minY, maxX, maxY,
+							visitor);
+				}
+			}
+		}
+	}
+
+	private void visit(Columns columns, int i, int minX, int minY, int maxX,
+			int maxY, LabelVisitor visitor)
+	{
+		int px = columns.x[i];
+		int py = columns.y[i];
+		if (px >= minX && px <= maxX && py >= minY && py <= maxY) {
+			columns.load(i, flyweight);
+			visitor.visit(flyweight);
+		}
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public long getBytes()
+	{
+		return (long) size * ENTRY_BYTES + stringBytes;
+	}
+
+	/**
+	 * @return the number of distinct texts in the string table.
+	 */
+	public int getNumStrings()
+	{
+		return strings.size();
+	}
+
+	@Override
+	public void clear()
+	{
+		classes.clear();
+		strings.clear();
+		stringIndices.clear();
+		size = 0;
+		stringBytes = 0;
+		markAllChanged();
+	}
+
+	private int cell(int coordinate)
+	{
+		return (int) Math.floor((double) coordinate / cellSize);
+	}
+
+	private static int hash(int x, int y, int text)
+	{
+		int h = x * 0x9E3779B1;
+		h = (h ^ y) * 0x85EBCA6B;
+		h = (h ^ text) * 0xC2B2AE35;
+		return h ^ (h >>> 16);
+	}
+
+	private static int[] newSlots(int capacity)
+	{
+		int[] slots = new int[capacity];
+		Arrays.fill(slots, -1);
+		return slots;
+	}
+
+}
@@ -26,11 +26,34 @@ public class DataRequest
 	BBox bbox;
 	int zoom;
 
+	// Whether the request is to be executed cell by cell, see QueryCells
+	boolean cells;
+	int cellZoom;
+	int cellMinX, cellMinY, cellMaxX, cellMaxY;
+
 	public DataRequest(int configurationId, BBox bbox, int zoom)
+	{
+		this(configurationId, bbox, zoom, false);
+	}
+
+	public DataRequest(int configurationId, BBox bbox, int zoom,
+			boolean cells)
 	{
 		this.configurationId = configurationId;
 		this.bbox = bbox;
 		this.zoom = zoom;
+		this.cells = cells;
+		if (cells) {
+			cellZoom = QueryCells.cellZoom(zoom);
+			double lon1 = Math.min(bbox.getLon1(), bbox.getLon2());
+			double lon2 = Math.max(bbox.getLon1(), bbox.getLon2());
+			double lat1 = Math.max(bbox.getLat1(), bbox.getLat2());
+			double lat2 = Math.min(bbox.getLat1(), bbox.getLat2());
+			cellMinX = QueryCells.cellX(lon1, cellZoom);
+			cellMaxX = QueryCells.cellX(lon2, cellZoom);
+			cellMinY = QueryCells.cellY(lat1, cellZoom);
+			cellMaxY = QueryCells.cellY(lat2, cellZoom);
+		}
 	}
 
 	@Override
@@ -40,8 +63,19 @@ public class DataRequest
 			return false;
 		}
 		DataRequest otherRequest = (DataRequest) other;
-		return otherRequest.zoom == zoom && otherRequest.bbox.equals(bbox)
-				&& otherRequest.configurationId == configurationId;
+		if (otherRequest.zoom != zoom
+				|| otherRequest.configurationId != configurationId
+				|| otherRequest.cells != cells) {
+			return false;
+		}
+		if (cells) {
+			// Requests covering the same cells yield the same results
+			return otherRequest.cellMinX == cellMinX
+					&& otherRequest.cellMinY == cellMinY
+					&& otherRequest.cellMaxX == cellMaxX
+					&& otherRequest.cellMaxY == cellMaxY;
+		}
+		return otherRequest.bbox.equals(bbox);
 	}
 
 }
@@ -17,12 +17,26 @@
 
 package de.topobyte.android.maps.utils.label;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
+
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 
 public class DefaultRenderWorker extends RenderWorker<LabelClass>
 {
 
+	// Each rendering thread uses its own copies of the label classes' paints
+	private final ThreadLocal<Map<LabelClass, LabelPaints>> paints = new ThreadLocal<Map<LabelClass, LabelPaints>>() {
+
+		@Override
+		protected Map<LabelClass, LabelPaints> initialValue()
+		{
+			return new IdentityHashMap<>();
+		}
+
+	};
+
 	public DefaultRenderWorker(LabelDrawer<?, LabelClass, ?> labelDrawer)
 	{
 		super(labelDrawer);
@@ -31,18 +45,53 @@ public class DefaultRenderWorker extends RenderWorker<LabelClass>
 	@Override
 	protected Bitmap createTextImage(LabelClass labelClass, String name)
 	{
-		int width = labelClass.getBoxWidth(name);
-		LabelBoxConfig lbc = labelClass.labelBoxConfig;
-		Bitmap bitmap = Bitmap.createBitmap(width, lbc.height,
+		int width = getTextImageWidth(labelClass, name);
+		int height = getTextImageHeight(labelClass);
+		Bitmap bitmap = Bitmap.createBitmap(width, height,
 				Bitmap.Config.ARGB_8888);
 		Canvas c = new Canvas(bitmap);
 
-		c.drawText(name, lbc.border, lbc.height - lbc.lowExtra - lbc.border,
-				labelClass.paintTextStroke);
-		c.drawText(name, lbc.border, lbc.height - lbc.lowExtra - lbc.border,
-				labelClass.paintTextFill);
+		drawTextImage(labelClass, name, c);
 
 		return bitmap;
 	}
 
+	private LabelPaints getPaints(LabelClass labelClass)
+	{
+		Map<LabelClass, LabelPaints> map = paints.get();
+		LabelPaints labelPaints = map.get(labelClass);
+		if (labelPaints == null) {
+			labelPaints = new LabelPaints();
+			map.put(labelClass, labelPaints);
+		}
+		labelClass.copyPaints(labelPaints);
+		return labelPaints;
+	}
+
+	@Override
+	protected int getTextImageWidth(LabelClass labelClass, String name)
+	{
+		return getPaints(labelClass).getBoxWidth(name);
+	}
+
+	@Override
+	protected int getTextImageHeight(LabelClass labelClass)
+	{
+		return getPaints(labelClass).labelBoxConfig.height;
+	}
+
+	@Override
+	protected void drawTextImage(LabelClass labelClass, String name,
+			Canvas canvas)
+	{
+		LabelPaints labelPaints = getPaints(labelClass);
+		LabelBoxConfig lbc = labelPaints.labelBoxConfig;
+		canvas.drawText(name, lbc.border,
+				lbc.height - lbc.lowExtra - lbc.border,
+				labelPaints.paintTextStroke);
+		canvas.drawText(name, lbc.border,
+				lbc.height - lbc.lowExtra - lbc.border,
+				labelPaints.paintTextFill);
+	}
+
 }
@@ -0,0 +1,74 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+
+package de.topobyte.android.maps.utils.label;
+
+import de.topobyte.adt.geo.BBox;
+import de.topobyte.jeography.core.mapwindow.SteplessMapWindow;
+
+/**
+ * Provides the query request for the viewport of each frame. The bounding
+ * box of the viewport and the request are only created when the map window,
+ * the configuration or the query mode changed.
+ */
+class FrameRequestCache
+{
+
+	// The viewport of the last frame
+	private double frameLon = Double.NaN;
+	private double frameLat = Double.NaN;
+	private double frameZoom = Double.NaN;
+	private int frameWidth = -1;
+	private int frameHeight = -1;
+	private BBox frameBBox = null;
+	private DataRequest frameRequest = null;
+
+	/**
+	 * Get the query request for the current viewport, reusing the one of the
+	 * last frame if nothing changed.
+	 */
+	public DataRequest get(SteplessMapWindow mapWindow, int configurationId,
+			boolean cells)
+	{
+		double lon = mapWindow.getCenterLon();
+		double lat = mapWindow.getCenterLat();
+		double zoom = mapWindow.getZoom();
+		int width = mapWindow.getWidth();
+		int height = mapWindow.getHeight();
+		if (lon != frameLon || lat != frameLat || zoom != frameZoom
+				|| width != frameWidth || height != frameHeight) {
+			frameLon = lon;
+			frameLat = lat;
+			frameZoom = zoom;
+			frameWidth = width;
+			frameHeight = height;
+			frameBBox = mapWindow.getBoundingBox();
+			frameRequest = null;
+		}
+
+		if (frameRequest == null
+				|| frameRequest.configurationId != configurationId
+				|| frameRequest.cells != cells) {
+			int izoom = (int) Math.round(zoom);
+			frameRequest = new DataRequest(configurationId, frameBBox, izoom,
+					cells);
+		}
+		return frameRequest;
+	}
+
+}
@@ -0,0 +1,198 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import com.infomatiq.jsi.Rectangle;
+
+/**
+ * An intersection tester based on a uniform grid of square cells. All data is
+ * kept in primitive arrays that are reused after {@link #clear()}, so that a
+ * single instance can be used for every frame without producing garbage.
+ * 
+ * Grid cells are mapped to a fixed number of hash buckets, hence the tester
+ * works for arbitrary coordinates.
+ */
+public class GridIntersectionTester implements RectangleIntersectionTester
+{
+
+	public static final int DEFAULT_CELL_SIZE = 64;
+
+	// Rectangles that cover more cells than this are checked against all
+	// rectangles instead of being looked up in the grid
+	private static final int MAX_CELLS = 64;
+
+	private final int cellSize;
+	private final int mask;
+
+	// Rectangle coordinates as (minX, minY, maxX, maxY) quadruples
+	private float[] rects = new float[4 * 256];
+	private int numRects = 0;
+
+	// For each bucket the first node, valid only if the bucket's epoch is the
+	// current epoch
+	private final int[] bucketHead;
+	private final int[] bucketEpoch;
+	private int epoch = 1;
+
+	// Linked lists of rectangle ids
+	private int[] nodeRect = new int[1024];
+	private int[] nodeNext = new int[1024];
+	private int numNodes = 0;
+
+	public GridIntersectionTester()
+	{
+		this(DEFAULT_CELL_SIZE, 1024);
+	}
+
+	/**
+	 * @param cellSize
+	 *            the width and height of grid cells.
+	 * @param numBuckets
+	 *            the number of hash buckets, will be rounded up to a power of
+	 *            two.
+	 */
+	public GridIntersectionTester(int cellSize, int numBuckets)
+	{
+		this.cellSize = cellSize;
+		int n = Integer.highestOneBit(Math.max(1, numBuckets - 1)) << 1;
+		mask = n - 1;
+		bucketHead = new int[n];
+		bucketEpoch = new int[n];
+	}
+
+	@Override
+	public void clear()
+	{
+		numRects = 0;
+		numNodes = 0;
+		epoch++;
+	}
+
+	@Override
+	public void add(Rectangle r, boolean clone)
+	{
+		// Coordinates are copied anyway, so there is no need to clone
+		int id = numRects++;
+		if (rects.length < numRects * 4) {
+			rects = grow(rects);
+		}
+		rects[id * 4] = r.minX;
+		rects[id * 4 + 1] = r.minY;
+		rects[id * 4 + 2] = r.maxX;
+		rects[id * 4 + 3] = r.maxY;
+
+		int cx1 = cell(r.minX);
+		int cx2 = cell(r.maxX);
+		int cy1 = cell(r.minY);
+		int cy2 = cell(r.maxY);
+		for (int cx = cx1; cx <= cx2; cx++) {
+			for (int cy = cy1; cy <= cy2; cy++) {
+				insert(bucket(cx, cy), id);
+			}
+		}
+	}
+
+	@Override
+	public boolean isFree(Rectangle r)
+	{
+		int cx1 = cell(r.minX);
+		int cx2 = cell(r.maxX);
+		int cy1 = cell(r.minY);
+		int cy2 = cell(r.maxY);
+
+		long numCells = (long) (cx2 - cx1 + 1) * (cy2 - cy1 + 1);
+		if (numCells > MAX_CELLS) {
+			for (int id = 0; id < numRects; id++) {
+				if (intersects(id, r)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		for (int cx = cx1; cx <= cx2; cx++) {
+			for (int cy = cy1; cy <= cy2; cy++) {
+				int bucket = bucket(cx, cy);
+				if (bucketEpoch[bucket] != epoch) {
+					continue;
+				}
+				for (int node = bucketHead[bucket]; node >= 0; node = nodeNext[node]) {
+					if (intersects(nodeRect[node], r)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	public int size()
+	{
+		return numRects;
+	}
+
+	private boolean intersects(int id, Rectangle r)
+	{
+		int i = id * 4;
+		return rects[i + 2] >= r.minX && rects[i] <= r.maxX
+				&& rects[i + 3] >= r.minY && rects[i + 1] <= r.maxY;
+	}
+
+	private void insert(int bucket, int id)
+	{
+		int node = numNodes++;
+		if (nodeRect.length < numNodes) {
+			nodeRect = grow(nodeRect);
+			nodeNext = grow(nodeNext);
+		}
+		nodeRect[node] = id;
+		if (bucketEpoch[bucket] != epoch) {
+			bucketEpoch[bucket] = epoch;
+			nodeNext[node] = -1;
+		} else {
+			nodeNext[node] = bucketHead[bucket];
+		}
+		bucketHead[bucket] = node;
+	}
+
+	private int cell(float coordinate)
+	{
+		return (int) Math.floor(coordinate / cellSize);
+	}
+
+	private int bucket(int cx, int cy)
+	{
+		int h = cx * 0x9E3779B1 + cy * 0x85EBCA77;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private static float[] grow(float[] array)
+	{
+		float[] bigger = new float[array.length * 2];
+		System.arraycopy(array, 0, bigger, 0, array.length);
+		return bigger;
+	}
+
+	private static int[] grow(int[] array)
+	{
+		int[] bigger = new int[array.length * 2];
+		System.arraycopy(array, 0, bigger, 0, array.length);
+		return bigger;
+	}
+
+}
@@ -26,6 +26,8 @@ public class Label implements Comparable<Label>
 	public int width = -1;
 	int placeType;
 	int id;
+	// The zoom level of the query that produced this label
+	int zoom;
 
 	public Label(int x, int y, String text, int placeType, int id)
 	{
@@ -36,10 +38,36 @@ public class Label implements Comparable<Label>
 		this.id = id;
 	}
 
+	/**
+	 * @return a new label with the same attributes.
+	 */
+	public Label copy()
+	{
+		Label copy = new Label(x, y, text, placeType, id);
+		copy.width = width;
+		copy.zoom = zoom;
+		return copy;
+	}
+
+	/*
+	 * Take over the attributes of the other label.
+	 */
+	void set(Label other)
+	{
+		x = other.x;
+		y = other.y;
+		text = other.text;
+		width = other.width;
+		placeType = other.placeType;
+		id = other.id;
+		zoom = other.zoom;
+	}
+
 	@Override
 	public int hashCode()
 	{
-		return x + y;
+		int hash = 31 * x + y;
+		return 31 * hash + (text == null ? 0 : text.hashCode());
 	}
 
 	@Override
@@ -0,0 +1,146 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+/**
+ * Stores many label images in a few large bitmaps instead of allocating a
+ * bitmap per label. Pages are filled using a shelf packer.
+ * 
+ * This class is not thread-safe, it is managed by {@link LabelBitmapCache}.
+ */
+public class LabelAtlas
+{
+
+	public static final int DEFAULT_PAGE_SIZE = 512;
+
+	private final int pageWidth;
+	private final int pageHeight;
+
+	private final List<AtlasPage> pages = new ArrayList<>();
+
+	private final Rect src = new Rect();
+
+	public LabelAtlas()
+	{
+		this(DEFAULT_PAGE_SIZE, DEFAULT_PAGE_SIZE);
+	}
+
+	public LabelAtlas(int pageWidth, int pageHeight)
+	{
+		this.pageWidth = pageWidth;
+		this.pageHeight = pageHeight;
+	}
+
+	public int getPageWidth()
+	{
+		return pageWidth;
+	}
+
+	public int getPageHeight()
+	{
+		return pageHeight;
+	}
+
+	public int getNumPages()
+	{
+		return pages.size();
+	}
+
+	boolean fits(int width, int height)
+	{
+		return width <= pageWidth && height <= pageHeight;
+	}
+
+	/**
+	 * Copy the upper left width x height pixels of the source into a free
+	 * region of some page. A new page is created if no existing page has
+	 * enough space left.
+	 * 
+	 * @return the newly created page or null if an existing page has been
+	 *         used.
+	 */
+	AtlasPage insert(LabelImage image, Bitmap source, int width, int height,
+			int frame)
+	{
+		image.region = new Rect();
+
+		AtlasPage page = null;
+		AtlasPage created = null;
+		// Try the most recently created pages first
+		for (int i = pages.size() - 1; i >= 0; i--) {
+			AtlasPage candidate = pages.get(i);
+			if (candidate.allocate(width, height, image.region)) {
+				page = candidate;
+				break;
+			}
+		}
+		if (page == null) {
+			page = new AtlasPage(pageWidth, pageHeight);
+			page.allocate(width, height, image.region);
+			pages.add(page);
+			created = page;
+		}
+
+		src.set(0, 0, width, height);
+		page.canvas.drawBitmap(source, src, image.region, null);
+
+		image.bitmap = page.bitmap;
+		image.page = page;
+		page.images.add(image);
+		page.lastFrame = frame;
+		return created;
+	}
+
+	/**
+	 * @return the page that has been drawn least recently or null if there
+	 *         are no pages.
+	 */
+	AtlasPage getLeastRecentlyDrawn()
+	{
+		AtlasPage oldest = null;
+		for (int i = 0; i < pages.size(); i++) {
+			AtlasPage page = pages.get(i);
+			if (oldest == null || page.lastFrame < oldest.lastFrame) {
+				oldest = page;
+			}
+		}
+		return oldest;
+	}
+
+	void remove(AtlasPage page)
+	{
+		pages.remove(page);
+	}
+
+	List<AtlasPage> getPages()
+	{
+		return pages;
+	}
+
+	void clear()
+	{
+		pages.clear();
+	}
+
+}
@@ -0,0 +1,365 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.slimjars.dist.gnu.trove.list.array.TIntArrayList;
+import com.slimjars.dist.gnu.trove.map.hash.TIntObjectHashMap;
+
+import android.graphics.Bitmap;
+
+/**
+ * A cache for label images keyed by (label class id, text) that is limited to
+ * a configurable number of bytes.
+ * 
+ * Entries are kept in least-recently-drawn order. When the budget is exceeded,
+ * entries are evicted starting with the one that has been drawn least
+ * recently, but never an entry that has been drawn during the current frame.
+ * Evicted bitmaps are not recycled right away since they may still be
+ * referenced by the frame that has been drawn most recently. Instead they are
+ * recycled once a later frame begins (see {@link #beginFrame()}), which
+ * happens on the UI thread.
+ * 
+ * If a {@link LabelAtlas} is configured, label images are copied into shared
+ * atlas pages. In that case eviction works on whole pages: the page that has
+ * been drawn least recently is reclaimed together with all of its labels.
+ * 
+ * This class is not thread-safe, callers need to synchronize access.
+ */
+public class LabelBitmapCache
+{
+
+	public static final long DEFAULT_BUDGET = 16 * 1024 * 1024;
+
+	private final TIntObjectHashMap<Map<String, LabelImage>> entries = new TIntObjectHashMap<>();
+
+	// Sentinel of the linked list of standalone images: head.next is the
+	// least recently drawn entry
+	private final LabelImage head = new LabelImage();
+
+	private LabelAtlas atlas = null;
+
+	// Bitmaps waiting to be recycled along with the frame they've last been
+	// drawn in
+	private final List<Bitmap> pendingRecycle = new ArrayList<>();
+	private final TIntArrayList pendingFrames = new TIntArrayList();
+
+	private long budget;
+	private long bytes = 0;
+	private int size = 0;
+	private int frame = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	public LabelBitmapCache()
+	{
+		this(DEFAULT_BUDGET);
+	}
+
+	public LabelBitmapCache(long budget)
+	{
+		this.budget = budget;
+		head.prev = head;
+		head.next = head;
+	}
+
+	public long getBudget()
+	{
+		return budget;
+	}
+
+	public void setBudget(long budget)
+	{
+		this.budget = budget;
+		evict();
+	}
+
+	public LabelAtlas getAtlas()
+	{
+		return atlas;
+	}
+
+	/**
+	 * Configure the atlas to store label images in or null to store each label
+	 * in a bitmap of its own. This clears the cache, so it may only be called
+	 * on the UI thread.
+	 */
+	public void setAtlas(LabelAtlas atlas)
+	{
+		clear();
+		this.atlas = atlas;
+	}
+
+	/**
+	 * Start a new frame. Must be called on the UI thread before drawing. This
+	 * also recycles bitmaps that have been evicted and are no longer
+	 * referenced by any frame.
+	 */
+	public void beginFrame()
+	{
+		frame++;
+		for (int i = pendingRecycle.size() - 1; i >= 0; i--) {
+			if (pendingFrames.get(i) < frame - 1) {
+				pendingRecycle.remove(i).recycle();
+				pendingFrames.removeAt(i);
+			}
+		}
+	}
+
+	/**
+	 * Look up the image for the specified label and mark it as drawn during
+	 * the current frame.
+	 * 
+	 * @return the image or null if there is no such image in the cache.
+	 */
+	public LabelImage get(int classId, String text)
+	{
+		LabelImage entry = find(classId, text);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		entry.lastFrame = frame;
+		if (entry.page != null) {
+			entry.page.lastFrame = frame;
+		} else {
+			unlink(entry);
+			append(entry);
+		}
+		return entry;
+	}
+
+	public boolean contains(int classId, String text)
+	{
+		return find(classId, text) != null;
+	}
+
+	/**
+	 * Add an image to the cache. The cache takes ownership of the bitmap. If
+	 * an atlas is used, the bitmap gets copied to the atlas and recycled.
+	 */
+	public void put(int classId, String text, Bitmap bitmap)
+	{
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		if (atlas != null && atlas.fits(width, height)) {
+			putCopy(classId, text, bitmap, width, height);
+			bitmap.recycle();
+			return;
+		}
+
+		LabelImage entry = create(classId, text);
+		entry.bitmap = bitmap;
+		entry.bytes = bitmap.getRowBytes() * bitmap.getHeight();
+		append(entry);
+		bytes += entry.bytes;
+
+		evict();
+	}
+
+	/**
+	 * Add an image to the cache by copying the upper left width x height
+	 * pixels of the specified bitmap. The caller keeps ownership of the source
+	 * bitmap.
+	 */
+	public void putCopy(int classId, String text, Bitmap source, int width,
+			int height)
+	{
+		if (atlas == null || !atlas.fits(width, height)) {
+			put(classId, text,
+					Bitmap.createBitmap(source, 0, 0, width, height));
+			return;
+		}
+
+		LabelImage entry = create(classId, text);
+		AtlasPage created = atlas.insert(entry, source, width, height, frame);
+		if (created != null) {
+			bytes += created.getBytes();
+		}
+
+		evict();
+	}
+
+	private LabelImage create(int classId, String text)
+	{
+		Map<String, LabelImage> classEntries = entries.get(classId);
+		if (classEntries == null) {
+			classEntries = new HashMap<>();
+			entries.put(classId, classEntries);
+		}
+
+		LabelImage entry = classEntries.get(text);
+		if (entry != null) {
+			if (entry.page != null) {
+				// The region stays occupied until the page is reclaimed
+				entry.page.images.remove(entry);
+			} else {
+				release(entry);
+			}
+			size--;
+		}
+
+		entry = new LabelImage();
+		entry.classId = classId;
+		entry.text = text;
+		entry.lastFrame = frame;
+		classEntries.put(text, entry);
+		size++;
+		return entry;
+	}
+
+	/**
+	 * Remove all entries and recycle all bitmaps immediately. Only call this
+	 * on the UI thread, so that there is no frame being drawn that still
+	 * references any of the bitmaps.
+	 */
+	public void clear()
+	{
+		for (LabelImage entry = head.next; entry != head; entry = entry.next) {
+			entry.bitmap.recycle();
+		}
+		if (atlas != null) {
+			for (AtlasPage page : atlas.getPages()) {
+				page.bitmap.recycle();
+			}
+			atlas.clear();
+		}
+		for (Bitmap bitmap : pendingRecycle) {
+			bitmap.recycle();
+		}
+		pendingRecycle.clear();
+		pendingFrames.clear();
+		entries.clear();
+		head.prev = head;
+		head.next = head;
+		bytes = 0;
+		size = 0;
+	}
+
+	private LabelImage find(int classId, String text)
+	{
+		Map<String, LabelImage> classEntries = entries.get(classId);
+		if (classEntries == null) {
+			return null;
+		}
+		return classEntries.get(text);
+	}
+
+	private void evict()
+	{
+		while (bytes > budget) {
+			LabelImage entry = head.next == head ? null : head.next;
+			AtlasPage page = atlas == null ? null
+					: atlas.getLeastRecentlyDrawn();
+
+			if (page != null
+					&& (entry == null || page.lastFrame < entry.lastFrame)) {
+				if (page.lastFrame >= frame) {
+					return;
+				}
+				evict(page);
+				continue;
+			}
+
+			if (entry == null || entry.lastFrame >= frame) {
+				// Everything left has been drawn during the current frame
+				return;
+			}
+			entries.get(entry.classId).remove(entry.text);
+			release(entry);
+			size--;
+			evictions++;
+		}
+	}
+
+	private void evict(AtlasPage page)
+	{
+		for (int i = 0; i < page.images.size(); i++) {
+			LabelImage image = page.images.get(i);
+			entries.get(image.classId).remove(image.text);
+			size--;
+			evictions++;
+		}
+		page.images.clear();
+		atlas.remove(page);
+		bytes -= page.getBytes();
+		pendingRecycle.add(page.bitmap);
+		pendingFrames.add(page.lastFrame);
+	}
+
+	private void release(LabelImage entry)
+	{
+		unlink(entry);
+		bytes -= entry.bytes;
+		pendingRecycle.add(entry.bitmap);
+		pendingFrames.add(entry.lastFrame);
+	}
+
+	private void append(LabelImage entry)
+	{
+		entry.prev = head.prev;
+		entry.next = head;
+		head.prev.next = entry;
+		head.prev = entry;
+	}
+
+	private void unlink(LabelImage entry)
+	{
+		entry.prev.next = entry.next;
+		entry.next.prev = entry.prev;
+		entry.prev = null;
+		entry.next = null;
+	}
+
+	/*
+	 * Statistics
+	 */
+
+	public int size()
+	{
+		return size;
+	}
+
+	public long getBytes()
+	{
+		return bytes;
+	}
+
+	public long getHits()
+	{
+		return hits;
+	}
+
+	public long getMisses()
+	{
+		return misses;
+	}
+
+	public long getEvictions()
+	{
+		return evictions;
+	}
+
+}
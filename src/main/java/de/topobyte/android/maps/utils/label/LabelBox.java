@@ -41,4 +41,15 @@ public class LabelBox
 		return rectangle;
 	}
 
+	/*
+	 * Reuse this box and its label for another label, see
+	 * LabelDrawer.setAllocationFree()
+	 */
+	void set(Label label, Rectangle rectangle)
+	{
+		this.label.set(label);
+		this.rectangle.set(rectangle.minX, rectangle.minY, rectangle.maxX,
+				rectangle.maxY);
+	}
+
 }
@@ -0,0 +1,72 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.infomatiq.jsi.Rectangle;
+
+/**
+ * Creates the {@link LabelBox} instances of a frame. If reuse is enabled,
+ * boxes are taken from a pool and are only valid until the next call to
+ * {@link #beginFrame()}.
+ */
+class LabelBoxPool
+{
+
+	private boolean reuse = false;
+	private final List<LabelBox> boxes = new ArrayList<>();
+	private int used = 0;
+
+	public boolean isReuse()
+	{
+		return reuse;
+	}
+
+	public void setReuse(boolean reuse)
+	{
+		this.reuse = reuse;
+	}
+
+	/**
+	 * Make all pooled boxes available again.
+	 */
+	public void beginFrame()
+	{
+		used = 0;
+	}
+
+	/**
+	 * Label boxes keep copies of the labels, the instances passed to visitors
+	 * by the candidate snapshot are reused.
+	 */
+	public LabelBox create(Label label, Rectangle r)
+	{
+		if (!reuse) {
+			return new LabelBox(label.copy(), r.copy());
+		}
+		if (used == boxes.size()) {
+			boxes.add(new LabelBox(label.copy(), r.copy()));
+		}
+		LabelBox box = boxes.get(used++);
+		box.set(label, r);
+		return box;
+	}
+
+}
@@ -0,0 +1,360 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.slimjars.dist.gnu.trove.map.hash.TIntObjectHashMap;
+import com.slimjars.dist.gnu.trove.map.hash.TLongObjectHashMap;
+import com.slimjars.dist.gnu.trove.procedure.TIntObjectProcedure;
+import com.slimjars.dist.gnu.trove.procedure.TLongObjectProcedure;
+
+/**
+ * Stores label candidates per label class and indexes them in a uniform grid
+ * based on their coordinates, so that the candidates within some region can
+ * be retrieved without visiting all candidates.
+ * 
+ * The grid cell size is specified in the coordinate system of {@link Label#x}
+ * and {@link Label#y}. It should be chosen such that a typical viewport spans
+ * a few cells in each direction.
+ * 
+ * This class is not thread-safe, callers need to synchronize access.
+ */
+public class LabelCandidates extends AbstractCandidateStore
+{
+
+	public static final int DEFAULT_CELL_SIZE = 256;
+
+	// Rough estimate of the memory occupied by a candidate without its text
+	private static final int LABEL_BYTES = 80;
+
+	private static class ClassCandidates
+	{
+
+		final Map<Label, Label> labels = new HashMap<>();
+		final TLongObjectHashMap<List<Label>> cells = new TLongObjectHashMap<>();
+
+	}
+
+	// Used to remove empty cells and classes while evicting
+	private static final TLongObjectProcedure<List<Label>> NON_EMPTY_CELLS = new TLongObjectProcedure<List<Label>>() {
+
+		@Override
+		public boolean execute(long key, List<Label> cell)
+		{
+			return !cell.isEmpty();
+		}
+
+	};
+
+	private static final TIntObjectProcedure<ClassCandidates> NON_EMPTY_CLASSES = new TIntObjectProcedure<ClassCandidates>() {
+
+		@Override
+		public boolean execute(int classId, ClassCandidates candidates)
+		{
+			return !candidates.labels.isEmpty();
+		}
+
+	};
+
+	private final int cellSize;
+
+	private final TIntObjectHashMap<ClassCandidates> classes = new TIntObjectHashMap<>();
+	private int size = 0;
+	private long bytes = 0;
+
+	public LabelCandidates()
+	{
+		this(DEFAULT_CELL_SIZE);
+	}
+
+	public LabelCandidates(int cellSize)
+	{
+		this.cellSize = cellSize;
+	}
+
+	@Override
+	public int getCellSize()
+	{
+		return cellSize;
+	}
+
+	/**
+	 * Add a candidate unless an equal candidate is already known.
+	 * 
+	 * @see CandidateStore#add(int, Label, int)
+	 * @return whether the candidate has been added.
+	 */
+	public boolean add(int classId, Label label)
+	{
+		return add(classId, label, label.zoom);
+	}
+
+	@Override
+	public boolean add(int classId, Label label, int zoom)
+	{
+		ClassCandidates candidates = classes.get(classId);
+		if (candidates == null) {
+			candidates = new ClassCandidates();
+			classes.put(classId, candidates);
+		}
+		Label known = candidates.labels.get(label);
+		if (known != null) {
+			// Queried again, so keep it as long as a new candidate
+			known.zoom = zoom;
+			if (label.width >= 0 && label.width != known.width) {
+				known.width = label.width;
+				markChanged(classId, cellKey(cell(known.x), cell(known.y)));
+			}
+			return false;
+		}
+		// Store a copy, the caller may keep and modify the instance, e.g. the
+		// QueryWorker emits the same labels again from its cell cache
+		label = label.copy();
+		label.zoom = zoom;
+		candidates.labels.put(label, label);
+
+		long key = cellKey(cell(label.x), cell(label.y));
+		markChanged(classId, key);
+		List<Label> cell = candidates.cells.get(key);
+		if (cell == null) {
+			cell = new ArrayList<>();
+			candidates.cells.put(key, cell);
+		}
+		cell.add(label);
+		size++;
+		bytes += estimateBytes(label);
+		return true;
+	}
+
+	private static long estimateBytes(Label label)
+	{
+		return LABEL_BYTES + (label.text == null ? 0 : 2 * label.text.length());
+	}
+
+	@Override
+	protected int collectScores(float[] scores)
+	{
+		int numScores = 0;
+		for (ClassCandidates candidates : classes.valueCollection()) {
+			for (Label label : candidates.labels.keySet()) {
+				float score = score(label.x, label.y, label.zoom);
+				if (score > 0) {
+					scores[numScores++] = score;
+				}
+			}
+		}
+		return numScores;
+	}
+
+	@Override
+	protected int evict(int n, float threshold)
+	{
+		int evicted = 0;
+		for (int classId : classes.keys()) {
+			ClassCandidates candidates = classes.get(classId);
+			for (long key : candidates.cells.keys()) {
+				List<Label> cell = candidates.cells.get(key);
+				int kept = 0;
+				for (int i = 0; i < cell.size(); i++) {
+					Label label = cell.get(i);
+					if (evicted < n && score(label.x, label.y,
+							label.zoom) >= threshold) {
+						candidates.labels.remove(label);
+						bytes -= estimateBytes(label);
+						evicted++;
+						markChanged(classId, key);
+					} else {
+						cell.set(kept++, label);
+					}
+				}
+				for (int i = cell.size() - 1; i >= kept; i--) {
+					cell.remove(i);
+				}
+			}
+			candidates.cells.retainEntries(NON_EMPTY_CELLS);
+		}
+		classes.retainEntries(NON_EMPTY_CLASSES);
+		size -= evicted;
+		return evicted;
+	}
+
+	@Override
+	public int[] getClassIds()
+	{
+		return classes.keys();
+	}
+
+	/**
+	 * @return all candidates of the specified class, possibly empty.
+	 */
+	public Collection<Label> get(int classId)
+	{
+		ClassCandidates candidates = classes.get(classId);
+		if (candidates == null) {
+			return Collections.emptyList();
+		}
+		return candidates.labels.keySet();
+	}
+
+	@Override
+	public Label[] toArray(int classId)
+	{
+		Collection<Label> labels = get(classId);
+		return labels.toArray(new Label[labels.size()]);
+	}
+
+	@Override
+	public void forEach(int classId, LabelVisitor visitor)
+	{
+		for (Label label : get(classId)) {
+			visitor.visit(label);
+		}
+	}
+
+	@Override
+	public long[] getCells(int classId)
+	{
+		ClassCandidates candidates = classes.get(classId);
+		if (candidates == null) {
+			return new long[0];
+		}
+		return candidates.cells.keys();
+	}
+
+	@Override
+	public void forEachInCell(int classId, long cellKey, LabelVisitor visitor)
+	{
+		ClassCandidates candidates = classes.get(classId);
+		if (candidates == null) {
+			return;
+		}
+		List<Label> cell = candidates.cells.get(cellKey);
+		if (cell == null) {
+			return;
+		}
+		for (int i = 0; i < cell.size(); i++) {
+			visitor.visit(cell.get(i));
+		}
+	}
+
+	@Override
+	public void resetWidths()
+	{
+		for (ClassCandidates candidates : classes.valueCollection()) {
+			for (Label label : candidates.labels.keySet()) {
+				label.width = -1;
+			}
+		}
+		markAllChanged();
+	}
+
+	@Override
+	public void query(int classId, int minX, int minY, int maxX, int maxY,
+			final List<Label> out)
+	{
+		query(classId, minX, minY, maxX, maxY, new LabelVisitor() {
+
+			@Override
+			public void visit(Label label)
+			{
+				out.add(label);
+			}
+
+		});
+	}
+
+	@Override
+	public void query(int classId, int minX, int minY, int maxX, int maxY,
+			LabelVisitor visitor)
+	{
+		setViewport(minX, minY, maxX, maxY);
+
+		ClassCandidates candidates = classes.get(classId);
+		if (candidates == null) {
+			return;
+		}
+
+		int cx1 = cell(minX);
+		int cx2 = cell(maxX);
+		int cy1 = cell(minY);
+		int cy2 = cell(maxY);
+
+		long numCells = ((long) cx2 - cx1 + 1) * ((long) cy2 - cy1 + 1);
+		if (numCells > candidates.cells.size()) {
+			// Fewer occupied cells than cells in the query region
+			for (List<Label> cell : candidates.cells.valueCollection()) {
+				visit(cell, minX, minY, maxX, maxY, visitor);
+			}
+			return;
+		}
+
+		for (int cx = cx1; cx <= cx2; cx++) {
+			for (int cy = cy1; cy <= cy2; cy++) {
+				List<Label> cell = candidates.cells.get(cellKey(cx, cy));
+				if (cell != null) {
+					visit(cell, minX, minY, maxX, maxY, visitor);
+				}
+			}
+		}
+	}
+
+	private void visit(List<Label> cell, int minX, int minY, int maxX,
+			int maxY, LabelVisitor visitor)
+	{
+		for (int i = 0; i < cell.size(); i++) {
+			Label label = cell.get(i);
+			if (label.x >= minX && label.x <= maxX && label.y >= minY
+					&& label.y <= maxY) {
+				visitor.visit(label);
+			}
+		}
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public long getBytes()
+	{
+		return bytes;
+	}
+
+	@Override
+	public void clear()
+	{
+		classes.clear();
+		size = 0;
+		bytes = 0;
+		markAllChanged();
+	}
+
+	private int cell(int coordinate)
+	{
+		return (int) Math.floor((double) coordinate / cellSize);
+	}
+
+}
@@ -32,6 +32,7 @@ public class LabelClass implements MagnificationSupport
 	private float magnification;
 	private float dotSizeNonScaled;
 
+	// Only change these through the methods of this class, see copyPaints()
 	public Paint paintTextFill;
 	public Paint paintTextStroke;
 	public Paint paintDotFill;
@@ -41,6 +42,11 @@ public class LabelClass implements MagnificationSupport
 	public boolean trySecondary;
 	public boolean tryReallyHard;
 
+	// Incremented each time the paints change, see copyPaints()
+	private volatile int version = 0;
+	// Held while changing the paints and while copying them
+	private final Object lockPaints = new Object();
+
 	public LabelClass(int textSize, float strokeWidth, boolean hasDot,
 			float dotSize, PlaceStyle placeStyle, Typeface typeface, int style,
 			float magnification, boolean trySecondary, boolean tryReallyHard)
@@ -85,11 +91,14 @@ public class LabelClass implements MagnificationSupport
 		int border = (int) Math.ceil(this.strokeWidth * magnification / 2);
 		dotSize = (int) Math.ceil(this.dotSizeNonScaled * magnification);
 
-		paintTextFill.setTextSize(textSize);
-		paintTextStroke.setTextSize(textSize);
-		paintTextStroke.setStrokeWidth(strokeWidth);
+		synchronized (lockPaints) {
+			paintTextFill.setTextSize(textSize);
+			paintTextStroke.setTextSize(textSize);
+			paintTextStroke.setStrokeWidth(strokeWidth);
 
-		labelBoxConfig = new LabelBoxConfig(textSize, border);
+			labelBoxConfig = new LabelBoxConfig(textSize, border);
+			version++;
+		}
 	}
 
 	public int getBoxWidth(String name)
@@ -100,9 +109,31 @@ public class LabelClass implements MagnificationSupport
 
 	public void setPlaceStyle(PlaceStyle placeStyle)
 	{
-		paintTextFill.setColor(placeStyle.fillCaption);
-		paintTextStroke.setColor(placeStyle.strokeCaption);
-		paintDotFill.setColor(placeStyle.fillDot);
+		synchronized (lockPaints) {
+			paintTextFill.setColor(placeStyle.fillCaption);
+			paintTextStroke.setColor(placeStyle.strokeCaption);
+			paintDotFill.setColor(placeStyle.fillDot);
+			version++;
+		}
+	}
+
+	/**
+	 * Update the specified copies of this class' paints if they are outdated.
+	 * The paints are copied while holding the lock that changes to them are
+	 * made under, so that a copy never observes a partial update.
+	 */
+	public void copyPaints(LabelPaints paints)
+	{
+		if (paints.version == version) {
+			return;
+		}
+		synchronized (lockPaints) {
+			paints.paintTextFill.set(paintTextFill);
+			paints.paintTextStroke.set(paintTextStroke);
+			paints.paintDotFill.set(paintDotFill);
+			paints.labelBoxConfig = labelBoxConfig;
+			paints.version = version;
+		}
 	}
 
 }
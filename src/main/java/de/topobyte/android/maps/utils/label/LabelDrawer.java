@@ -19,10 +19,12 @@ package de.topobyte.android.maps.utils.label;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.infomatiq.jsi.Rectangle;
 import com.slimjars.dist.gnu.trove.map.hash.TIntObjectHashMap;
@@ -41,6 +43,7 @@ import de.topobyte.adt.geo.BBox;
 import de.topobyte.android.maps.utils.HasSteplessMapWindow;
 import de.topobyte.android.maps.utils.MagnificationSupport;
 import de.topobyte.android.maps.utils.OnDrawListener;
+import de.topobyte.android.maps.utils.trace.Trace;
 import de.topobyte.android.maps.utils.view.Disableable;
 import de.topobyte.android.misc.utils.AndroidTimeUtil;
 import de.topobyte.jeography.core.mapwindow.SteplessMapWindow;
@@ -61,14 +64,41 @@ public abstract class LabelDrawer<B, LC extends MagnificationSupport, T extends
 	// LabelClasses with their ids and allow lookup in either direction.
 	protected TIntObjectHashMap<LC> labelClasses = new TIntObjectHashMap<>();
 	protected TObjectIntHashMap<LC> labelClassToId = new TObjectIntHashMap<>();
-	// This map stores all currently known label candidates. It maps from some
-	// label-class identifier to the set of candidates of that type.
-	protected TIntObjectHashMap<Set<Label>> candidates = new TIntObjectHashMap<>();
-	// This map stores a cache for label bitmaps for each LabelClass.
-	protected TIntObjectHashMap<Map<String, Bitmap>> bitmaps = new TIntObjectHashMap<>();
-
-	// TODO: implement a mechanism for making sure that the bitmaps cache only
-	// contains relevant items in every multi-threaded scenario
+	// This stores all currently known label candidates for each label-class
+	// identifier. It is modified by the workers, guarded by lockCandidates.
+	protected CandidateStore candidates = new LabelCandidates();
+	// An immutable copy of the candidates published to the UI thread. Use
+	// getCandidates().query() in render() to retrieve the candidates within
+	// the visible region.
+	private final AtomicReference<CandidateSnapshot> snapshot = new AtomicReference<>(
+			new CandidateSnapshot());
+	private long lastPublished = 0;
+	private volatile long candidateEvictions = 0;
+	// Label widths are computed when integrating query results, off the UI
+	// thread, and cached independently of the candidates.
+	protected TextWidthCache widths = new TextWidthCache();
+	// Copies of the label classes' paints for measuring text, guarded by
+	// lockCandidates
+	private final Map<LC, LabelPaints> measurePaints = new IdentityHashMap<>();
+	// This cache stores label bitmaps for each LabelClass. It is limited in
+	// size and evicts the bitmaps that have not been drawn for the longest time.
+	// Only accessed on the UI thread.
+	protected LabelBitmapCache bitmaps = new LabelBitmapCache();
+	// Label images rendered by the RenderWorker, moved to the cache on the UI
+	// thread
+	private final ConcurrentLinkedQueue<RenderedLabel> rendered = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pendingImages = new AtomicInteger();
+	// Scratch bitmaps for rendering labels that get copied to the atlas,
+	// returned here once copied. The pool grows to the number of images
+	// rendered between two frames, up to the maximum.
+	private final ConcurrentLinkedQueue<ScratchBitmap> scratchPool = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pooledScratch = new AtomicInteger();
+	private static final int MAX_POOLED_SCRATCH = 32;
+
+	// Durations of the pipeline stages, disabled by default
+	protected final LabelMetrics metrics = new LabelMetrics();
+	// Time spent blitting during the current frame
+	private long blitNanos;
 
 	private boolean enabled = true;
 	protected boolean enabledInternally = false;
@@ -79,6 +109,13 @@ public abstract class LabelDrawer<B, LC extends MagnificationSupport, T extends
 	private boolean drawDebugFrame = false;
 	private boolean drawLabelBoxes = false;
 
+	// Reused for every frame, see setIntersectionTester()
+	private RectangleIntersectionTester tester = new GridIntersectionTester();
+
+	private volatile boolean atlasEnabled = false;
+	// Reusable destination rectangle for drawing labels from an atlas
+	private final RectF dst = new RectF();
+
 	private static Paint paintFrame = new Paint();
 	static {
 		paintFrame.setStyle(Style.STROKE);
@@ -91,12 +128,72 @@ public abstract class LabelDrawer<B, LC extends MagnificationSupport, T extends
 		paintBoxes.setColor(0xFFFF0000);
 	}
 
-	private final Object lockBitmapCache = new Object();
 	private final Object lockCandidates = new Object();
-	private int configurationId = 0;
+	private volatile int configurationId = 0;
+
+	// Minimum time between snapshots published while a query is in progress
+	private static final long PUBLISH_INTERVAL_NANOS = 50 * 1000 * 1000;
+
+	private static class RenderedLabel
+	{
+
+		final int configurationId;
+		final int classId;
+		final String text;
+		// Either a bitmap owned by the label or a scratch bitmap whose upper
+		// left width x height pixels contain the label
+		final Bitmap bitmap;
+		final ScratchBitmap scratch;
+		final int width;
+		final int height;
+
+		RenderedLabel(int configurationId, int classId, String text,
+				Bitmap bitmap)
+		{
+			this.configurationId = configurationId;
+			this.classId = classId;
+			this.text = text;
+			this.bitmap = bitmap;
+			this.scratch = null;
+			this.width = bitmap.getWidth();
+			this.height = bitmap.getHeight();
+		}
+
+		RenderedLabel(int configurationId, int classId, String text,
+				ScratchBitmap scratch, int width, int height)
+		{
+			this.configurationId = configurationId;
+			this.classId = classId;
+			this.text = text;
+			this.bitmap = null;
+			this.scratch = scratch;
+			this.width = width;
+			this.height = height;
+		}
+
+	}
+
+	// Frame counter and the viewport center of the current frame, used to
+	// prioritize label rendering requests
+	private int frame = 0;
+	private float centerX;
+	private float centerY;
 
 	protected Map<B, List<LabelBox>> renderedLabels = new HashMap<>();
 
+	// With allocation-free frames, label boxes are taken from this pool and
+	// reused in the next frame
+	private boolean allocationFree = false;
+	private final LabelBoxPool labelBoxes = new LabelBoxPool();
+
+	// Reused for drawing debug information
+	private final Rect debugFrame = new Rect();
+	private final RectF debugBox = new RectF();
+
+	// The query request of the last frame, reused while the map window is
+	// unchanged
+	private final FrameRequestCache frameRequests = new FrameRequestCache();
+
 	public LabelDrawer(Context context, View view, float density)
 			throws IOException
 	{
@@ -116,6 +213,25 @@ public abstract class LabelDrawer<B, LC extends MagnificationSupport, T extends
 		return renderedLabels;
 	}
 
+	public boolean isAllocationFree()
+	{
+		return allocationFree;
+	}
+
+	/**
+	 * Avoid heap allocations while drawing frames once the label images of the
+	 * viewport are available. Per-frame logging is disabled and the
+	 * {@link LabelBox} instances added to the baskets by {@link #use} are
+	 * reused, hence they are only valid until the next frame is drawn. The bounding
+	 * box of the viewport and the query request are only created when the map
+	 * window changed.
+	 */
+	public void setAllocationFree(boolean allocationFree)
+	{
+		this.allocationFree = allocationFree;
+		labelBoxes.setReuse(allocationFree);
+	}
+
 	public TIntObjectHashMap<LC> getLabelClasses()
 	{
 		return labelClasses;
@@ -134,21 +250,19 @@ public abstract class LabelDrawer<B, LC extends MagnificationSupport, T extends
 			labelClass.setMagnification(magnification);
 		}
 
-		for (int key : candidates.keys()) {
-			Set<Label> labels = candidates.get(key);
-			for (Label label : labels) {
-				label.width = -1;
-			}
+		// Widths get computed again when the next query results arrive
+		synchronized (lockCandidates) {
+			candidates.resetWidths();
+			publish();
 		}
+		forceNewQuery();
 
 		if (renderWorker != null) {
 			renderWorker.cancelJobs();
 		}
 
-		synchronized (lockBitmapCache) {
-			configurationId++;
-			clearCache();
-		}
+		configurationId++;
+		clearCache();
 		return true;
 	}
 
@@ -157,6 +271,15 @@ public abstract class LabelDrawer<B, LC extends MagnificationSupport, T extends
 		return magnification;
 	}
 
+	/**
+	 * @return the current configuration id. Requests with a different id are
+	 *         outdated.
+	 */
+	int getConfigurationId()
+	{
+		return configurationId;
+	}
+
 	public void layersChanged()
 	{
 		Log.i(LOG, "layersChanged()");
@@ -164,19 +287,94 @@ public abstract class LabelDrawer<B, LC extends MagnificationSupport, T extends
 		// Reset these variables to force a reload of data on the next onDraw()
 		lastIssuedRequest = null;
 		lastFinishedRequest = null;
+		// Cached results are outdated, but there is no need to drop them
+		// right away. They will be replaced once needed.
+		if (queryWorker != null) {
+			queryWorker.invalidateCache();
+		}
 	}
 
 	protected void clearCache()
 	{
 		// This is happening on the UI-thread, so it won't interfere with
 		// onDraw() having references that could be used after recycle().
-		for (int id : bitmaps.keys()) {
-			Map<String, Bitmap> bm = bitmaps.get(id);
-			for (Bitmap bitmap : bm.values()) {
-				bitmap.recycle();
-			}
-		}
 		bitmaps.clear();
+		RenderedLabel label;
+		while ((label = rendered.poll()) != null) {
+			pendingImages.decrementAndGet();
+			release(label);
+		}
+	}
+
+	/*
+	 * Free the image of a rendered label that does not get cached.
+	 */
+	private void release(RenderedLabel label)
+	{
+		if (label.scratch != null) {
+			releaseScratch(label.scratch);
+		} else {
+			label.bitmap.recycle();
+		}
+	}
+
+	/**
+	 * Set the maximum number of bytes occupied by cached label bitmaps. Must
+	 * be called on the UI thread.
+	 */
+	public void setBitmapCacheBudget(long bytes)
+	{
+		bitmaps.setBudget(bytes);
+	}
+
+	public LabelBitmapCache getBitmapCache()
+	{
+		return bitmaps;
+	}
+
+	/**
+	 * Configure whether label images should be packed into shared atlas pages
+	 * instead of using a separate bitmap for each label. Must be called on the
+	 * UI thread.
+	 */
+	public void setAtlasEnabled(boolean enabled)
+	{
+		setAtlas(enabled ? new LabelAtlas() : null);
+	}
+
+	/**
+	 * Configure the atlas used to store label images or null to use a
+	 * separate bitmap for each label. Must be called on the UI thread.
+	 */
+	public void setAtlas(LabelAtlas atlas)
+	{
+		if (renderWorker != null) {
+			renderWorker.cancelJobs();
+		}
+		configurationId++;
+		clearCache();
+		bitmaps.setAtlas(atlas);
+		atlasEnabled = atlas != null;
+	}
+
+	public boolean isAtlasEnabled()
+	{
+		return atlasEnabled;
+	}
+
+	/**
+	 * Set the implementation used to detect overlapping labels during
+	 * placement. The tester is cleared and reused for each frame. The default
+	 * is a {@link GridIntersectionTester}.
+	 */
+	public void setIntersectionTester(RectangleIntersectionTester tester)
+	{
+		this.tester = tester;
+	}
+
+	public RectangleIntersectionTester getIntersectionTester()
+	{
+		return tester;
 	}
 
 	/**
@@ -185,97 +383,280 @@ public abstract class LabelDrawer<B, LC extends MagnificationSupport, T extends
 	 * issuing duplicate queries with the same parameters.
 	 */
 	private DataRequest lastIssuedRequest = null;
-	private DataRequest lastFinishedRequest = null;
+	private volatile DataRequest lastFinishedRequest = null;
 
 	/**
 	 * Called by the QueryWorker to update the internal structure of candidate
-	 * labels after retrieving some data from the database.
+	 * labels after retrieving some data from the database. This may be called
+	 * multiple times per request with batches of results.
 	 */
 	void report(DataRequest request, TIntObjectHashMap<List<Label>> labelMap)
 	{
 		Log.i(LOG, "LabelDrawer: received some results from the QueryWorker");
 		AndroidTimeUtil.time("report data");
+		long start = metrics.start();
+		Trace.begin("LabelDrawer.report");
 		synchronized (lockCandidates) {
 			if (request.configurationId != configurationId) {
 				Log.i(LOG, "Dismissing outdated data results");
+				metrics.increment(LabelMetrics.COUNTER_DISMISSED_RESULTS);
+				Trace.end("LabelDrawer.report");
 				return;
 			}
-			lastFinishedRequest = request;
 			for (int key : labelMap.keys()) {
 				List<Label> labels = labelMap.get(key);
-				Set<Label> classCandidates = candidates.get(key);
-				if (classCandidates == null) {
-					classCandidates = new TreeSet<>();
-					candidates.put(key, classCandidates);
-				}
 				Log.i(LOG, "For class " + key + ": " + labels.size());
+				LC labelClass = labelClasses.get(key);
+				int textSize = labelClass == null ? -1
+						: getTextSize(labelClass);
 				for (Label label : labels) {
-					classCandidates.add(label);
+					if (textSize >= 0) {
+						label.width = getWidth(key, labelClass, textSize,
+								label.text);
+					}
+					candidates.add(key, label, request.zoom);
 				}
 			}
+			candidates.setZoom(request.zoom);
+			snapshot.get().applyViewport(candidates);
+			int evicted = candidates.evict();
+			if (evicted > 0) {
+				Log.i(LOG, "Evicted candidates: " + evicted);
+			}
+			if (System.nanoTime() - lastPublished >= PUBLISH_INTERVAL_NANOS) {
+				publish();
+			}
 		}
+		metrics.end(LabelMetrics.STAGE_INTEGRATE, start);
+		Trace.end("LabelDrawer.report");
 		AndroidTimeUtil.time("report data", LOG_TIMES,
 				"time for integrating data results: %d");
 		view.postInvalidate();
 	}
 
+	private int getWidth(int classId, LC labelClass, int textSize, String text)
+	{
+		int width = widths.get(classId, textSize, text);
+		if (width < 0) {
+			width = measureWidth(labelClass, text);
+			if (width >= 0) {
+				widths.put(classId, textSize, text, width);
+			}
+		}
+		return width;
+	}
+
 	/**
-	 * Called by the RenderWorker to notify about a new readily usable
-	 * Label-Bitmap.
+	 * Return the text size of the specified label class. This is used to
+	 * distinguish cached label widths computed for different text sizes. Return
+	 * -1 if widths cannot be computed while integrating query results, leaving
+	 * it to render() to compute them.
+	 * 
+	 * Like {@link #measureWidth(MagnificationSupport, String)}, this is called
+	 * on the QueryWorker's thread.
 	 */
-	void report(LabelRequest<LC> request, Bitmap bitmap)
+	protected int getTextSize(LC labelClass)
+	{
+		if (!(labelClass instanceof LabelClass)) {
+			return -1;
+		}
+		return getMeasurePaints(labelClass).labelBoxConfig.textSize;
+	}
+
+	/**
+	 * Compute the width of a label's box or return -1 if it cannot be computed
+	 * here. This is called on the QueryWorker's thread, so implementations
+	 * must not use Paint objects that are also used on the UI thread. The
+	 * default implementation only supports instances of {@link LabelClass}.
+	 */
+	protected int measureWidth(LC labelClass, String text)
 	{
-		synchronized (lockBitmapCache) {
+		if (!(labelClass instanceof LabelClass)) {
+			return -1;
+		}
+		return getMeasurePaints(labelClass).getBoxWidth(text);
+	}
+
+	/*
+	 * Only to be called with instances of LabelClass.
+	 */
+	private LabelPaints getMeasurePaints(LC labelClass)
+	{
+		LabelPaints paints = measurePaints.get(labelClass);
+		if (paints == null) {
+			paints = new LabelPaints();
+			measurePaints.put(labelClass, paints);
+		}
+		((LabelClass) labelClass).copyPaints(paints);
+		return paints;
+	}
+
+	/**
+	 * Publish a new snapshot of the candidates if they changed since the last
+	 * one. Only the grid cells the store reports as changed are copied. Must
+	 * be called with lockCandidates held.
+	 */
+	private void publish()
+	{
+		if (!candidates.hasChanges()) {
+			return;
+		}
+		snapshot.set(snapshot.get().update(candidates));
+		lastPublished = System.nanoTime();
+		candidateEvictions = candidates.getEvictions();
+	}
+
+	/**
+	 * @return the most recently published snapshot of the label candidates.
+	 *         It does not change while being used and requires no locking.
+	 */
+	protected CandidateSnapshot getCandidates()
+	{
+		return snapshot.get();
+	}
+
+	/**
+	 * Called by the QueryWorker after all results for a request have been
+	 * reported.
+	 */
+	void reportFinished(DataRequest request)
+	{
+		synchronized (lockCandidates) {
+			publish();
 			if (request.configurationId != configurationId) {
-				bitmap.recycle();
 				return;
 			}
-			LC labelClass = request.labelClass;
-			int id = labelClassToId.get(labelClass);
-			Log.i(LOG, "Received label for class " + id + ": '" + request.text
-					+ "'");
-			Map<String, Bitmap> bm = bitmaps.get(id);
-
-			if (bm == null) {
-				bm = new HashMap<>();
-				bitmaps.put(id, bm);
-			}
+			lastFinishedRequest = request;
+		}
+		view.postInvalidate();
+	}
+
+	/**
+	 * Called by the RenderWorker to notify about a new readily usable
+	 * Label-Bitmap.
+	 */
+	void report(LabelRequest<LC> request, Bitmap bitmap)
+	{
+		if (request.configurationId != configurationId) {
+			metrics.increment(LabelMetrics.COUNTER_DISMISSED_IMAGES);
+			bitmap.recycle();
+			return;
+		}
+		Log.i(LOG, "Received label for class " + request.classId + ": '"
+				+ request.text + "'");
+		pendingImages.incrementAndGet();
+		rendered.add(new RenderedLabel(request.configurationId,
+				request.classId, request.text, bitmap));
+		view.postInvalidate();
+	}
 
-			bm.put(request.text, bitmap);
+	/**
+	 * Called by the RenderWorker to notify about a new label image that has
+	 * been rendered to the upper left corner of a scratch bitmap obtained from
+	 * {@link #obtainScratch()}. The image is copied to the cache on the UI
+	 * thread, which then returns the scratch bitmap to the pool.
+	 */
+	void report(LabelRequest<LC> request, ScratchBitmap scratch, int width,
+			int height)
+	{
+		if (request.configurationId != configurationId) {
+			metrics.increment(LabelMetrics.COUNTER_DISMISSED_IMAGES);
+			releaseScratch(scratch);
+			return;
 		}
+		pendingImages.incrementAndGet();
+		rendered.add(new RenderedLabel(request.configurationId,
+				request.classId, request.text, scratch, width, height));
 		view.postInvalidate();
 	}
 
+	/**
+	 * Take a scratch bitmap from the pool or create a new one. Called by the
+	 * RenderWorker's threads.
+	 */
+	ScratchBitmap obtainScratch()
+	{
+		ScratchBitmap scratch = scratchPool.poll();
+		if (scratch == null) {
+			return new ScratchBitmap();
+		}
+		pooledScratch.decrementAndGet();
+		return scratch;
+	}
+
+	private void releaseScratch(ScratchBitmap scratch)
+	{
+		if (pooledScratch.incrementAndGet() > MAX_POOLED_SCRATCH) {
+			pooledScratch.decrementAndGet();
+			scratch.recycle();
+			return;
+		}
+		scratchPool.add(scratch);
+	}
+
+	/**
+	 * Move label images reported by the RenderWorker to the cache. Called on
+	 * the UI thread.
+	 */
+	private void integrateRendered()
+	{
+		RenderedLabel label;
+		while ((label = rendered.poll()) != null) {
+			pendingImages.decrementAndGet();
+			if (label.configurationId != configurationId) {
+				metrics.increment(LabelMetrics.COUNTER_DISMISSED_IMAGES);
+				release(label);
+				continue;
+			}
+			if (label.scratch != null) {
+				bitmaps.putCopy(label.classId, label.text,
+						label.scratch.bitmap, label.width, label.height);
+				releaseScratch(label.scratch);
+			} else {
+				bitmaps.put(label.classId, label.text, label.bitmap);
+			}
+		}
+	}
+
 	@Override
 	public void onDraw(T mapView, Canvas canvas)
 	{
 		if (!enabled || !enabledInternally) {
 			return;
 		}
-		Log.i(LOG, "onDraw()");
+		if (!allocationFree) {
+			Log.i(LOG, "onDraw()");
+		}
 
 		if (drawDebugFrame) {
 			// draw a red rectangle around everything
-			Rect rect = new Rect(10, 10, mapView.getWidth() - 10,
+			debugFrame.set(10, 10, mapView.getWidth() - 10,
 					mapView.getHeight() - 10);
-			canvas.drawRect(rect, paintFrame);
+			canvas.drawRect(debugFrame, paintFrame);
 		}
 
 		SteplessMapWindow mapWindow = mapView.getSteplessMapWindow();
 
-		// Post a new request to the QueryWorker
-		BBox bbox = mapWindow.getBoundingBox();
-		double zoom = mapWindow.getZoom();
-		int izoom = (int) Math.round(zoom);
+		frame++;
+		centerX = mapWindow.getWidth() / 2f;
+		centerY = mapWindow.getHeight() / 2f;
+		labelBoxes.beginFrame();
 
-		DataRequest request = new DataRequest(configurationId, bbox, izoom);
+		// Post a new request to the QueryWorker
+		DataRequest request = frameRequests.get(mapWindow, configurationId,
+				queryWorker.isQueryCells());
+		BBox bbox = request.bbox;
 		if (lastIssuedRequest != null && request.equals(lastIssuedRequest)) {
-			Log.i(LOG,
-					"Not making another query, it's the same as the last issued one");
+			if (!allocationFree) {
+				Log.i(LOG,
+						"Not making another query, it's the same as the last issued one");
+			}
 		} else if (lastFinishedRequest != null
 				&& request.equals(lastFinishedRequest)) {
-			Log.i(LOG,
-					"Not making another query, it's the same as the last successful one");
+			if (!allocationFree) {
+				Log.i(LOG,
+						"Not making another query, it's the same as the last successful one");
+			}
 		} else {
 			lastIssuedRequest = request;
 			Log.i(LOG, "Posting request to the QueryWorker");
@@ -283,47 +664,156 @@ public abstract class LabelDrawer<B, LC extends MagnificationSupport, T extends
 		}
 
 		// Do the actual rendering of what we already have in place
-		RectangleIntersectionTester tester = new RTreeIntersectionTester();
-
-		synchronized (lockBitmapCache) {
-			synchronized (lockCandidates) {
-				render(mapWindow, bbox, canvas, tester);
-
-				int size = 0;
-				for (int key : bitmaps.keys()) {
-					Map<String, Bitmap> bm = bitmaps.get(key);
-					if (bm == null) {
-						continue;
-					}
-					size += bm.size();
-				}
-				Log.i(LOG, "Size of bitmap cache: " + size);
-			}
+		tester.clear();
+
+		// Neither the candidate snapshot nor the bitmap cache require locking,
+		// so workers are never blocked by drawing a frame
+		bitmaps.beginFrame();
+		integrateRendered();
+		blitNanos = 0;
+		long start = metrics.start();
+		Trace.begin("LabelDrawer.render");
+		render(mapWindow, bbox, canvas, tester);
+		Trace.end("LabelDrawer.render");
+		if (start != 0) {
+			long total = System.nanoTime() - start;
+			metrics.record(LabelMetrics.STAGE_PLACEMENT, total - blitNanos);
+			metrics.record(LabelMetrics.STAGE_BLIT, blitNanos);
+		}
+		metrics.increment(LabelMetrics.COUNTER_FRAMES);
+		if (renderWorker != null) {
+			// Drop requests for labels that are no longer placed
+			renderWorker.retainFrame(frame);
 		}
 	}
 
+	/**
+	 * Place and draw labels. This is called on the UI thread. Retrieve the
+	 * candidates from {@link #getCandidates()}. Label widths are
+	 * computed on the QueryWorker's thread, hence implementations should skip
+	 * labels whose width is still -1 instead of measuring text themselves;
+	 * they will be available with the next query results. The snapshot passes
+	 * a reused Label instance to visitors, {@link #use} keeps a copy of it.
+	 */
 	protected abstract void render(SteplessMapWindow mapWindow, BBox bbox,
 			Canvas canvas, RectangleIntersectionTester tester);
 
 	protected void use(int id, Label label, LC labelClass, Canvas canvas,
-			RectangleIntersectionTester tester, Map<String, Bitmap> bm,
-			Rectangle r, List<LabelBox> basket)
+			RectangleIntersectionTester tester, Rectangle r,
+			List<LabelBox> basket)
 	{
 		tester.add(r, true);
-		basket.add(new LabelBox(label, r.copy()));
+		basket.add(labelBoxes.create(label, r));
 
-		Bitmap bitmap = bm.get(label.text);
+		LabelImage image = bitmaps.get(id, label.text);
 
-		if (bitmap == null) {
+		if (image == null) {
+			float dx = (r.minX + r.maxX) / 2 - centerX;
+			float dy = (r.minY + r.maxY) / 2 - centerY;
+			float distance = (float) Math.sqrt(dx * dx + dy * dy);
+			float priority = distance / getClassImportance(id);
 			renderWorker.post(new LabelRequest<>(configurationId, id,
-					labelClass, label.text));
+					labelClass, label.text, frame, priority));
 			return;
 		}
 
-		canvas.drawBitmap(bitmap, r.minX, r.minY, null);
+		long start = metrics.start();
+		Rect region = image.getRegion();
+		if (region == null) {
+			canvas.drawBitmap(image.getBitmap(), r.minX, r.minY, null);
+		} else {
+			dst.set(r.minX, r.minY, r.minX + region.width(),
+					r.minY + region.height());
+			canvas.drawBitmap(image.getBitmap(), region, dst, null);
+		}
+		if (start != 0) {
+			blitNanos += System.nanoTime() - start;
+		}
 		if (drawLabelBoxes) {
-			canvas.drawRect(new RectF(r.minX, r.minY, r.maxX, r.maxY),
-					paintBoxes);
+			debugBox.set(r.minX, r.minY, r.maxX, r.maxY);
+			canvas.drawRect(debugBox, paintBoxes);
+		}
+	}
+
+	/**
+	 * Labels of classes with a higher importance get rendered earlier than
+	 * labels at the same distance from the viewport center with a lower
+	 * importance. Must return a positive value.
+	 */
+	protected float getClassImportance(int classId)
+	{
+		return 1;
+	}
+
+	/**
+	 * Limit the number of label candidates kept in memory and their estimated
+	 * memory usage. Candidates far away from the viewport get evicted first.
+	 */
+	public void setCandidateLimits(int maxCount, long maxBytes)
+	{
+		synchronized (lockCandidates) {
+			candidates.setLimits(maxCount, maxBytes);
+		}
+	}
+
+	/**
+	 * Replace the store of label candidates, for example with a
+	 * {@link CompactLabelCandidates} instance to reduce memory usage with many
+	 * candidates. Known candidates are dropped and queried again, limits need
+	 * to be set on the new store.
+	 */
+	public void setCandidateStore(CandidateStore store)
+	{
+		synchronized (lockCandidates) {
+			candidates = store;
+			snapshot.set(snapshot.get().rebuild(store));
+			lastPublished = System.nanoTime();
+			candidateEvictions = store.getEvictions();
+		}
+		forceNewQuery();
+	}
+
+	/**
+	 * @return the recorder of the pipeline's stage durations. Recording needs
+	 *         to be enabled using {@link LabelMetrics#setEnabled(boolean)}.
+	 */
+	public LabelMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Copy the recorded metrics and the current state of the caches and queues
+	 * to the specified snapshot without allocating memory. Meant to be called
+	 * on the UI thread.
+	 */
+	public void getMetrics(LabelMetricsSnapshot snapshot)
+	{
+		metrics.copyTo(snapshot);
+
+		snapshot.bitmapCacheHits = bitmaps.getHits();
+		snapshot.bitmapCacheMisses = bitmaps.getMisses();
+		snapshot.bitmapCacheEvictions = bitmaps.getEvictions();
+		snapshot.bitmapCacheSize = bitmaps.size();
+		snapshot.bitmapCacheBytes = bitmaps.getBytes();
+
+		snapshot.widthCacheHits = widths.getHits();
+		snapshot.widthCacheMisses = widths.getMisses();
+
+		snapshot.candidates = this.snapshot.get().size();
+		snapshot.candidateEvictions = candidateEvictions;
+		snapshot.pendingImages = pendingImages.get();
+
+		if (queryWorker != null) {
+			LabelQueryCache cache = queryWorker.getCache();
+			snapshot.queryCacheHits = cache.getHits();
+			snapshot.queryCacheMisses = cache.getMisses();
+			snapshot.supersededQueries = queryWorker.getSupersededCount();
+			snapshot.cancelledQueries = queryWorker.getCancelledCount();
+		}
+		if (renderWorker != null) {
+			snapshot.renderQueueSize = renderWorker.getQueueSize();
+			snapshot.droppedRequests = renderWorker.getDroppedCount();
 		}
 	}
 
@@ -339,20 +829,17 @@ public abstract class LabelDrawer<B, LC extends MagnificationSupport, T extends
 
 	public void clearBitmaps()
 	{
-		synchronized (lockBitmapCache) {
-			configurationId++;
-			clearCache();
-		}
+		configurationId++;
+		clearCache();
 	}
 
 	public void clearBitmapsAndCandidates()
 	{
-		synchronized (lockBitmapCache) {
-			synchronized (lockCandidates) {
-				configurationId++;
-				clearCache();
-				candidates.clear();
-			}
+		synchronized (lockCandidates) {
+			configurationId++;
+			clearCache();
+			candidates.clear();
+			publish();
 		}
 	}
 
@@ -368,5 +855,10 @@ public abstract class LabelDrawer<B, LC extends MagnificationSupport, T extends
 		clearBitmapsAndCandidates();
 		queryWorker.destroy();
 		renderWorker.destroy();
+		ScratchBitmap scratch;
+		while ((scratch = scratchPool.poll()) != null) {
+			pooledScratch.decrementAndGet();
+			scratch.recycle();
+		}
 	}
 }
@@ -0,0 +1,67 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+/**
+ * A rendered label image. This is either a standalone bitmap or a region
+ * within a shared page of a {@link LabelAtlas}.
+ */
+public class LabelImage
+{
+
+	int classId;
+	String text;
+	Bitmap bitmap;
+	// The region within the bitmap, null if the label has its own bitmap
+	Rect region;
+	AtlasPage page;
+	int bytes;
+	int lastFrame;
+
+	// Doubly linked list in least-recently-drawn order
+	LabelImage prev;
+	LabelImage next;
+
+	public Bitmap getBitmap()
+	{
+		return bitmap;
+	}
+
+	/**
+	 * @return the region of the bitmap occupied by the label or null if the
+	 *         whole bitmap belongs to the label.
+	 */
+	public Rect getRegion()
+	{
+		return region;
+	}
+
+	public int getWidth()
+	{
+		return region == null ? bitmap.getWidth() : region.width();
+	}
+
+	public int getHeight()
+	{
+		return region == null ? bitmap.getHeight() : region.height();
+	}
+
+}
@@ -0,0 +1,153 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the durations of the stages of the label pipeline and counts
+ * dismissed results. Recording is disabled by default, in which case
+ * {@link #start()} and {@link #end(int, long)} do nothing but read a volatile
+ * flag.
+ * 
+ * Use {@link LabelDrawer#getMetrics(LabelMetricsSnapshot)} to poll the
+ * recorded values together with the state of the caches and queues.
+ */
+public class LabelMetrics
+{
+
+	// Executing a query in the QueryWorker
+	public static final int STAGE_QUERY = 0;
+	// Integrating query results into the candidates
+	public static final int STAGE_INTEGRATE = 1;
+	// Placing labels during a frame, excluding blitting
+	public static final int STAGE_PLACEMENT = 2;
+	// Drawing label images to the canvas during a frame
+	public static final int STAGE_BLIT = 3;
+	// Rendering a single label image in the RenderWorker
+	public static final int STAGE_RASTERIZE = 4;
+
+	public static final int NUM_STAGES = 5;
+
+	// Query results dismissed because of a configuration change
+	public static final int COUNTER_DISMISSED_RESULTS = 0;
+	// Label images dismissed because of a configuration change
+	public static final int COUNTER_DISMISSED_IMAGES = 1;
+	// Label requests skipped by the RenderWorker because they were outdated
+	public static final int COUNTER_SKIPPED_REQUESTS = 2;
+	public static final int COUNTER_FRAMES = 3;
+
+	public static final int NUM_COUNTERS = 4;
+
+	private volatile boolean enabled = false;
+
+	private final LatencyHistogram[] histograms = new LatencyHistogram[NUM_STAGES];
+	private final AtomicLongArray counters = new AtomicLongArray(
+			NUM_COUNTERS);
+
+	public LabelMetrics()
+	{
+		for (int i = 0; i < NUM_STAGES; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	public void setEnabled(boolean enabled)
+	{
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * @return the start time of a stage to pass to {@link #end(int, long)} or
+	 *         0 if recording is disabled.
+	 */
+	public long start()
+	{
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Record the duration of a stage that began at the specified start time.
+	 */
+	public void end(int stage, long start)
+	{
+		if (start != 0) {
+			histograms[stage].record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Record a duration measured by the caller.
+	 */
+	public void record(int stage, long nanos)
+	{
+		if (enabled) {
+			histograms[stage].record(nanos);
+		}
+	}
+
+	public void increment(int counter)
+	{
+		if (enabled) {
+			counters.incrementAndGet(counter);
+		}
+	}
+
+	public LatencyHistogram getHistogram(int stage)
+	{
+		return histograms[stage];
+	}
+
+	public long getCounter(int counter)
+	{
+		return counters.get(counter);
+	}
+
+	public void reset()
+	{
+		for (int i = 0; i < NUM_STAGES; i++) {
+			histograms[i].reset();
+		}
+		for (int i = 0; i < NUM_COUNTERS; i++) {
+			counters.set(i, 0);
+		}
+	}
+
+	/**
+	 * Copy the histograms and counters to the snapshot.
+	 */
+	void copyTo(LabelMetricsSnapshot snapshot)
+	{
+		for (int i = 0; i < NUM_STAGES; i++) {
+			LatencyHistogram histogram = histograms[i];
+			histogram.copyTo(snapshot.buckets[i]);
+			snapshot.counts[i] = histogram.getCount();
+			snapshot.sums[i] = histogram.getSum();
+			snapshot.maxima[i] = histogram.getMax();
+		}
+		for (int i = 0; i < NUM_COUNTERS; i++) {
+			snapshot.counters[i] = counters.get(i);
+		}
+	}
+
+}
@@ -0,0 +1,188 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+/**
+ * A copy of the label pipeline's metrics. Instances are meant to be reused,
+ * filling them using {@link LabelDrawer#getMetrics(LabelMetricsSnapshot)}
+ * does not allocate.
+ */
+public class LabelMetricsSnapshot
+{
+
+	final long[][] buckets = new long[LabelMetrics.NUM_STAGES][LatencyHistogram.NUM_BUCKETS];
+	final long[] counts = new long[LabelMetrics.NUM_STAGES];
+	final long[] sums = new long[LabelMetrics.NUM_STAGES];
+	final long[] maxima = new long[LabelMetrics.NUM_STAGES];
+	final long[] counters = new long[LabelMetrics.NUM_COUNTERS];
+
+	long bitmapCacheHits;
+	long bitmapCacheMisses;
+	long bitmapCacheEvictions;
+	int bitmapCacheSize;
+	long bitmapCacheBytes;
+
+	long queryCacheHits;
+	long queryCacheMisses;
+	long supersededQueries;
+	long cancelledQueries;
+
+	long widthCacheHits;
+	long widthCacheMisses;
+
+	int candidates;
+	long candidateEvictions;
+
+	int renderQueueSize;
+	int pendingImages;
+	long droppedRequests;
+
+	/**
+	 * @return the number of recorded durations of the specified stage.
+	 */
+	public long getCount(int stage)
+	{
+		return counts[stage];
+	}
+
+	/**
+	 * @return the mean duration of the specified stage in nanoseconds.
+	 */
+	public long getMean(int stage)
+	{
+		return counts[stage] == 0 ? 0 : sums[stage] / counts[stage];
+	}
+
+	/**
+	 * @return the maximum duration of the specified stage in nanoseconds.
+	 */
+	public long getMax(int stage)
+	{
+		return maxima[stage];
+	}
+
+	/**
+	 * @param p
+	 *            the percentile in the range 0 to 1.
+	 * @return an upper bound for the percentile of the durations of the
+	 *         specified stage in nanoseconds.
+	 */
+	public long getPercentile(int stage, double p)
+	{
+		return LatencyHistogram.percentile(buckets[stage], p);
+	}
+
+	/**
+	 * @return the bucket counts of the specified stage, see
+	 *         {@link LatencyHistogram}. The array is reused.
+	 */
+	public long[] getBuckets(int stage)
+	{
+		return buckets[stage];
+	}
+
+	public long getCounter(int counter)
+	{
+		return counters[counter];
+	}
+
+	public long getBitmapCacheHits()
+	{
+		return bitmapCacheHits;
+	}
+
+	public long getBitmapCacheMisses()
+	{
+		return bitmapCacheMisses;
+	}
+
+	public long getBitmapCacheEvictions()
+	{
+		return bitmapCacheEvictions;
+	}
+
+	public int getBitmapCacheSize()
+	{
+		return bitmapCacheSize;
+	}
+
+	public long getBitmapCacheBytes()
+	{
+		return bitmapCacheBytes;
+	}
+
+	public long getQueryCacheHits()
+	{
+		return queryCacheHits;
+	}
+
+	public long getQueryCacheMisses()
+	{
+		return queryCacheMisses;
+	}
+
+	public long getSupersededQueries()
+	{
+		return supersededQueries;
+	}
+
+	public long getCancelledQueries()
+	{
+		return cancelledQueries;
+	}
+
+	public long getWidthCacheHits()
+	{
+		return widthCacheHits;
+	}
+
+	public long getWidthCacheMisses()
+	{
+		return widthCacheMisses;
+	}
+
+	public int getCandidates()
+	{
+		return candidates;
+	}
+
+	public long getCandidateEvictions()
+	{
+		return candidateEvictions;
+	}
+
+	public int getRenderQueueSize()
+	{
+		return renderQueueSize;
+	}
+
+	/**
+	 * @return the number of rendered label images not yet moved to the
+	 *         bitmap cache.
+	 */
+	public int getPendingImages()
+	{
+		return pendingImages;
+	}
+
+	public long getDroppedRequests()
+	{
+		return droppedRequests;
+	}
+
+}
@@ -0,0 +1,44 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import android.graphics.Paint;
+
+/**
+ * A private copy of the Paint objects of a {@link LabelClass}. Paint objects
+ * must not be used by multiple threads at once, so each rendering thread
+ * works with its own copies.
+ */
+public class LabelPaints
+{
+
+	public final Paint paintTextFill = new Paint();
+	public final Paint paintTextStroke = new Paint();
+	public final Paint paintDotFill = new Paint();
+	public LabelBoxConfig labelBoxConfig;
+
+	// The version of the LabelClass these paints have been copied from
+	int version = -1;
+
+	public int getBoxWidth(String name)
+	{
+		float textLength = paintTextFill.measureText(name);
+		return (int) Math.ceil(textLength + 2 * labelBoxConfig.border);
+	}
+
+}
@@ -0,0 +1,133 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.slimjars.dist.gnu.trove.map.hash.TIntObjectHashMap;
+
+/**
+ * A cache for query results per (zoom, cell) with least-recently-used
+ * eviction. Invalidation is cheap: it does not remove anything, but marks all
+ * present entries as stale so that they get replaced once they are needed
+ * again.
+ */
+public class LabelQueryCache
+{
+
+	public static final int DEFAULT_MAX_CELLS = 256;
+
+	private static class Entry
+	{
+
+		final TIntObjectHashMap<List<Label>> labels;
+		final int generation;
+
+		Entry(TIntObjectHashMap<List<Label>> labels, int generation)
+		{
+			this.labels = labels;
+			this.generation = generation;
+		}
+
+	}
+
+	private int maxCells;
+	private int generation = 0;
+
+	private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(
+			16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest)
+		{
+			return size() > maxCells;
+		}
+
+	};
+
+	private long hits = 0;
+	private long misses = 0;
+
+	public LabelQueryCache()
+	{
+		this(DEFAULT_MAX_CELLS);
+	}
+
+	public LabelQueryCache(int maxCells)
+	{
+		this.maxCells = maxCells;
+	}
+
+	public synchronized void setMaxCells(int maxCells)
+	{
+		this.maxCells = maxCells;
+	}
+
+	/**
+	 * @return the cached results for the cell or null if there are no
+	 *         up-to-date results.
+	 */
+	public synchronized TIntObjectHashMap<List<Label>> get(long key)
+	{
+		Entry entry = entries.get(key);
+		if (entry == null || entry.generation != generation) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.labels;
+	}
+
+	public synchronized void put(long key, TIntObjectHashMap<List<Label>> labels)
+	{
+		entries.put(key, new Entry(labels, generation));
+	}
+
+	/**
+	 * Mark all cached results as outdated.
+	 */
+	public synchronized void invalidate()
+	{
+		generation++;
+	}
+
+	public synchronized void clear()
+	{
+		entries.clear();
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+}
@@ -25,13 +25,28 @@ public class LabelRequest<LC> implements Comparable<LabelRequest<LC>>
 	LC labelClass;
 	String text;
 
+	// The frame this request has been posted during most recently
+	int frame;
+	// Requests with lower values get rendered first
+	float priority;
+	// Position within the LabelRequestQueue's heap
+	int heapIndex = -1;
+
 	public LabelRequest(int configurationId, int classId, LC labelClass,
 			String text)
+	{
+		this(configurationId, classId, labelClass, text, 0, 0);
+	}
+
+	public LabelRequest(int configurationId, int classId, LC labelClass,
+			String text, int frame, float priority)
 	{
 		this.configurationId = configurationId;
 		this.classId = classId;
 		this.labelClass = labelClass;
 		this.text = text;
+		this.frame = frame;
+		this.priority = priority;
 	}
 
 	@Override
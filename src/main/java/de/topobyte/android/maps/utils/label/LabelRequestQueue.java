@@ -0,0 +1,259 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A bounded priority queue of label rendering requests. Requests with a lower
+ * priority value are taken first. Posting a request that is already queued
+ * updates the queued request's priority and frame instead of adding a
+ * duplicate. When the queue is full, the request with the highest priority
+ * value is dropped.
+ * 
+ * This class is not thread-safe, callers need to synchronize access.
+ */
+class LabelRequestQueue<LC>
+{
+
+	private final Map<LabelRequest<LC>, LabelRequest<LC>> index = new HashMap<>();
+	private LabelRequest<LC>[] heap;
+	private int size = 0;
+	private int capacity;
+
+	private long dropped = 0;
+
+	@SuppressWarnings("unchecked")
+	LabelRequestQueue(int capacity)
+	{
+		this.capacity = capacity;
+		heap = new LabelRequest[Math.min(capacity, 64)];
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	boolean contains(LabelRequest<LC> request)
+	{
+		return index.containsKey(request);
+	}
+
+	int getCapacity()
+	{
+		return capacity;
+	}
+
+	void setCapacity(int capacity)
+	{
+		this.capacity = capacity;
+		while (size > capacity) {
+			removeAt(findWorst());
+			dropped++;
+		}
+	}
+
+	long getDropped()
+	{
+		return dropped;
+	}
+
+	/**
+	 * Add a request or update the priority and frame of an equal request that
+	 * is already queued.
+	 */
+	void offer(LabelRequest<LC> request)
+	{
+		LabelRequest<LC> queued = index.get(request);
+		if (queued != null) {
+			queued.frame = request.frame;
+			float old = queued.priority;
+			queued.priority = request.priority;
+			if (request.priority < old) {
+				siftUp(queued.heapIndex);
+			} else {
+				siftDown(queued.heapIndex);
+			}
+			return;
+		}
+
+		if (capacity <= 0) {
+			dropped++;
+			return;
+		}
+
+		if (size == capacity) {
+			int worst = findWorst();
+			if (heap[worst].priority <= request.priority) {
+				dropped++;
+				return;
+			}
+			removeAt(worst);
+			dropped++;
+		}
+
+		if (size == heap.length) {
+			@SuppressWarnings("unchecked")
+			LabelRequest<LC>[] bigger = new LabelRequest[Math.min(capacity,
+					heap.length * 2)];
+			System.arraycopy(heap, 0, bigger, 0, size);
+			heap = bigger;
+		}
+
+		index.put(request, request);
+		heap[size] = request;
+		request.heapIndex = size;
+		size++;
+		siftUp(size - 1);
+	}
+
+	/**
+	 * Remove and return the request with the lowest priority value.
+	 */
+	LabelRequest<LC> poll()
+	{
+		if (size == 0) {
+			return null;
+		}
+		LabelRequest<LC> first = heap[0];
+		removeAt(0);
+		return first;
+	}
+
+	/**
+	 * Drop all requests that have not been posted during the specified frame
+	 * or later.
+	 * 
+	 * @return the number of requests dropped.
+	 */
+	int retainFrame(int frame)
+	{
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			LabelRequest<LC> request = heap[i];
+			if (request.frame >= frame) {
+				heap[kept] = request;
+				request.heapIndex = kept;
+				kept++;
+			} else {
+				index.remove(request);
+				request.heapIndex = -1;
+			}
+		}
+		for (int i = kept; i < size; i++) {
+			heap[i] = null;
+		}
+		int removed = size - kept;
+		size = kept;
+		for (int i = size / 2 - 1; i >= 0; i--) {
+			siftDown(i);
+		}
+		dropped += removed;
+		return removed;
+	}
+
+	void clear()
+	{
+		for (int i = 0; i < size; i++) {
+			heap[i].heapIndex = -1;
+			heap[i] = null;
+		}
+		size = 0;
+		index.clear();
+	}
+
+	private int findWorst()
+	{
+		// The maximum is one of the leaves
+		int worst = size / 2;
+		for (int i = worst + 1; i < size; i++) {
+			if (heap[i].priority > heap[worst].priority) {
+				worst = i;
+			}
+		}
+		return worst;
+	}
+
+	private void removeAt(int i)
+	{
+		LabelRequest<LC> removed = heap[i];
+		index.remove(removed);
+		removed.heapIndex = -1;
+
+		size--;
+		if (i == size) {
+			heap[size] = null;
+			return;
+		}
+		LabelRequest<LC> last = heap[size];
+		heap[size] = null;
+		heap[i] = last;
+		last.heapIndex = i;
+		siftDown(i);
+		if (heap[i] == last) {
+			siftUp(i);
+		}
+	}
+
+	private void siftUp(int i)
+	{
+		LabelRequest<LC> request = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			LabelRequest<LC> p = heap[parent];
+			if (p.priority <= request.priority) {
+				break;
+			}
+			heap[i] = p;
+			p.heapIndex = i;
+			i = parent;
+		}
+		heap[i] = request;
+		request.heapIndex = i;
+	}
+
+	private void siftDown(int i)
+	{
+		LabelRequest<LC> request = heap[i];
+		int half = size / 2;
+		while (i < half) {
+			int child = 2 * i + 1;
+			int right = child + 1;
+			if (right < size && heap[right].priority < heap[child].priority) {
+				child = right;
+			}
+			LabelRequest<LC> c = heap[child];
+			if (request.priority <= c.priority) {
+				break;
+			}
+			heap[i] = c;
+			c.heapIndex = i;
+			i = child;
+		}
+		heap[i] = request;
+		request.heapIndex = i;
+	}
+
+}
@@ -0,0 +1,37 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.List;
+
+import com.slimjars.dist.gnu.trove.map.hash.TIntObjectHashMap;
+
+/**
+ * Receives query results in batches as soon as they are available.
+ */
+public interface LabelSink
+{
+
+	/**
+	 * Deliver a batch of labels, mapping from label-class identifiers to
+	 * labels of that class. Batches may be shared with caches and must not be
+	 * modified by the sink.
+	 */
+	public void emit(TIntObjectHashMap<List<Label>> batch);
+
+}
@@ -0,0 +1,146 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds that can be updated concurrently
+ * without locking. Each power of two is split into four buckets, so values
+ * are resolved with a relative error of at most 25%.
+ */
+public class LatencyHistogram
+{
+
+	// Powers of two covered, 2^40 ns are about 18 minutes
+	private static final int MAX_EXPONENT = 40;
+
+	public static final int NUM_BUCKETS = 4 * MAX_EXPONENT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long nanos)
+	{
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		counts.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		sum.addAndGet(nanos);
+		long current;
+		while (nanos > (current = max.get())) {
+			if (max.compareAndSet(current, nanos)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Copy the bucket counts to the specified array, which needs to have at
+	 * least {@link #NUM_BUCKETS} elements.
+	 */
+	public void copyTo(long[] buckets)
+	{
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			buckets[i] = counts.get(i);
+		}
+	}
+
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	public long getSum()
+	{
+		return sum.get();
+	}
+
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	public void reset()
+	{
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	static int bucket(long nanos)
+	{
+		if (nanos < 4) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int) (nanos >>> (exponent - 2)) & 3;
+		return Math.min(NUM_BUCKETS - 1, 4 * (exponent - 1) + sub);
+	}
+
+	/**
+	 * @return the smallest value that falls into the specified bucket.
+	 */
+	static long lowerBound(int bucket)
+	{
+		if (bucket < 4) {
+			return bucket;
+		}
+		int exponent = bucket / 4 + 1;
+		int sub = bucket % 4;
+		return (long) (4 + sub) << (exponent - 2);
+	}
+
+	/**
+	 * Compute a percentile from bucket counts as copied by
+	 * {@link #copyTo(long[])}.
+	 * 
+	 * @param p
+	 *            the percentile in the range 0 to 1.
+	 * @return an upper bound for the percentile in nanoseconds or 0 if there
+	 *         are no values.
+	 */
+	public static long percentile(long[] buckets, double p)
+	{
+		long total = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			total += buckets[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(p * total));
+		long cumulative = 0;
+		for (int i = 0; i < NUM_BUCKETS; i++) {
+			cumulative += buckets[i];
+			if (cumulative >= target) {
+				return i + 1 < NUM_BUCKETS ? lowerBound(i + 1) - 1
+						: Long.MAX_VALUE;
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+}
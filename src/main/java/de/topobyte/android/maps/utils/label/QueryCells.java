@@ -0,0 +1,89 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import de.topobyte.adt.geo.BBox;
+
+/**
+ * Utility methods for splitting query regions into cells. Cells are aligned
+ * with the tiles of the web mercator tiling scheme, one zoom level above the
+ * zoom level of the query, i.e. each cell covers 2x2 tiles at the query's zoom
+ * level.
+ */
+class QueryCells
+{
+
+	static int cellZoom(int zoom)
+	{
+		return Math.max(0, zoom - 1);
+	}
+
+	static int cellX(double lon, int cellZoom)
+	{
+		int n = 1 << cellZoom;
+		int x = (int) Math.floor((lon + 180) / 360 * n);
+		return clamp(x, n);
+	}
+
+	static int cellY(double lat, int cellZoom)
+	{
+		int n = 1 << cellZoom;
+		double rad = Math.toRadians(lat);
+		double y = (1 - Math.log(Math.tan(rad) + 1 / Math.cos(rad)) / Math.PI)
+				/ 2 * n;
+		return clamp((int) Math.floor(y), n);
+	}
+
+	private static int clamp(int v, int n)
+	{
+		if (v < 0) {
+			return 0;
+		}
+		if (v >= n) {
+			return n - 1;
+		}
+		return v;
+	}
+
+	static double lon(int x, int cellZoom)
+	{
+		return x / (double) (1 << cellZoom) * 360 - 180;
+	}
+
+	static double lat(int y, int cellZoom)
+	{
+		double n = Math.PI * (1 - 2 * y / (double) (1 << cellZoom));
+		return Math.toDegrees(Math.atan(Math.sinh(n)));
+	}
+
+	static BBox bbox(int cellZoom, int x, int y)
+	{
+		return new BBox(lon(x, cellZoom), lat(y, cellZoom), lon(x + 1, cellZoom),
+				lat(y + 1, cellZoom));
+	}
+
+	/**
+	 * Create a key that identifies the results for a cell queried with some
+	 * zoom level.
+	 */
+	static long key(int zoom, int x, int y)
+	{
+		return ((long) zoom << 58) | ((long) x << 29) | y;
+	}
+
+}
@@ -17,7 +17,14 @@
 
 package de.topobyte.android.maps.utils.label;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 import com.slimjars.dist.gnu.trove.map.hash.TIntObjectHashMap;
 
@@ -25,10 +32,34 @@ import android.util.Log;
 import android.view.View;
 import de.topobyte.adt.geo.BBox;
 import de.topobyte.android.maps.utils.HasSteplessMapWindow;
+import de.topobyte.android.maps.utils.trace.Trace;
 
 /**
  * This worker executes queries on the database and returns the results to the
  * LabelDrawer.
+ * 
+ * By default, queried regions are split into cells aligned with the map tiles
+ * (see {@link #setQueryCells(boolean)}). Results are cached per cell, so that
+ * only those cells need to be queried that have not been queried recently.
+ * 
+ * Queries that take a long time should check the {@link CancellationToken}
+ * passed to {@link #runQuery(BBox, int, CancellationToken)} and return early if
+ * it has been cancelled, which happens as soon as a newer request has been
+ * posted or the LabelDrawer's configuration changed.
+ * 
+ * Results are passed to the LabelDrawer incrementally. In cell mode, each cell
+ * is reported once it is available, starting with the cells closest to the
+ * center of the requested region. Implementations can report even smaller
+ * batches by overriding
+ * {@link #runQuery(BBox, int, CancellationToken, LabelSink)}, ideally emitting
+ * the labels closest to the center or the most important classes first.
+ * 
+ * Queries can be executed in parallel on a fork-join pool (see
+ * {@link #setParallelism(int)}). In cell mode, missing cells are queried
+ * concurrently; otherwise the requested region is split into sub-regions whose
+ * results are merged, eliminating duplicates found in more than one
+ * sub-region. In parallel mode, the runQuery() methods must be safe to call
+ * from multiple threads at once.
  */
 public abstract class QueryWorker<T extends View & HasSteplessMapWindow>
 		implements Runnable
@@ -39,12 +70,23 @@ public abstract class QueryWorker<T extends View & HasSteplessMapWindow>
 	// Synchronized access to these variables
 	private boolean queryInProcess = false;
 	private boolean workAvailable = false;
-	private DataRequest request = null;
+	private volatile DataRequest request = null;
+	private long superseded = 0;
+	private long cancelled = 0;
 
 	// Other variables
 	protected LabelDrawer<?, ?, T> labelDrawer;
 
-	private boolean running = true;
+	private volatile boolean running = true;
+
+	private volatile boolean queryCells = true;
+	private final LabelQueryCache cache = new LabelQueryCache();
+
+	// The requested parallelism, applied by the worker between queries
+	private volatile int parallelism = 1;
+	// Only accessed by the worker thread
+	private ForkJoinPool pool = null;
+	private int poolParallelism = 1;
 
 	public QueryWorker(LabelDrawer<?, ?, T> labelDrawer)
 	{
@@ -55,6 +97,10 @@ public abstract class QueryWorker<T extends View & HasSteplessMapWindow>
 	{
 		Log.i("labels", "QueryWorker received request");
 		synchronized (syncObject) {
+			if (workAvailable) {
+				// The previous request has not even been started
+				superseded++;
+			}
 			this.request = request;
 			workAvailable = true;
 			if (!queryInProcess) {
@@ -68,7 +114,7 @@ public abstract class QueryWorker<T extends View & HasSteplessMapWindow>
 	{
 		while (running) {
 			synchronized (syncObject) {
-				while (!workAvailable) {
+				while (!workAvailable && running) {
 					try {
 						Log.i("labels",
 								"QueryWorker: no work available, waiting");
@@ -77,13 +123,50 @@ public abstract class QueryWorker<T extends View & HasSteplessMapWindow>
 						continue;
 					}
 				}
+				if (!running) {
+					break;
+				}
 				queryInProcess = true;
 			}
-			executeQuery();
+			updatePool();
+			Trace.begin("QueryWorker.executeQuery");
+			try {
+				executeQuery();
+			} finally {
+				Trace.end("QueryWorker.executeQuery");
+			}
 			synchronized (syncObject) {
 				queryInProcess = false;
 			}
 		}
+		shutdownPool();
+	}
+
+	/*
+	 * Replace the pool if the requested parallelism changed. Only called by
+	 * the worker thread between queries, so that no query is running on the
+	 * pool being shut down.
+	 */
+	private void updatePool()
+	{
+		int parallelism = this.parallelism;
+		if (parallelism == poolParallelism) {
+			return;
+		}
+		shutdownPool();
+		poolParallelism = parallelism;
+		if (parallelism > 1) {
+			pool = new ForkJoinPool(parallelism);
+		}
+	}
+
+	private void shutdownPool()
+	{
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+		poolParallelism = 1;
 	}
 
 	private void executeQuery()
@@ -95,16 +178,399 @@ public abstract class QueryWorker<T extends View & HasSteplessMapWindow>
 			workAvailable = false;
 		}
 
-		BBox bbox = myRequest.bbox;
+		CancellationToken token = new RequestToken(myRequest);
+		LabelSink sink = new DrawerSink(myRequest, token);
+
+		LabelMetrics metrics = labelDrawer.getMetrics();
+		long start = metrics.start();
+
+		ForkJoinPool pool = this.pool;
+		if (myRequest.cells) {
+			queryCells(myRequest, token, sink, pool);
+		} else if (pool != null) {
+			TIntObjectHashMap<List<Label>> labels = pool.invoke(
+					new RegionTask(myRequest.bbox, myRequest.zoom, token,
+							poolParallelism));
+			if (!token.isCancelled()) {
+				sink.emit(labels);
+			}
+		} else {
+			runQuery(myRequest.bbox, myRequest.zoom, token, sink);
+		}
+		metrics.end(LabelMetrics.STAGE_QUERY, start);
+
+		if (token.isCancelled()) {
+			Log.i("labels", "QueryWorker: query has been cancelled");
+			synchronized (syncObject) {
+				cancelled++;
+			}
+			return;
+		}
+
+		labelDrawer.reportFinished(myRequest);
+	}
+
+	/**
+	 * Passes batches on to the LabelDrawer unless the query has been
+	 * cancelled.
+	 */
+	private class DrawerSink implements LabelSink
+	{
+
+		private final DataRequest myRequest;
+		private final CancellationToken token;
+
+		DrawerSink(DataRequest myRequest, CancellationToken token)
+		{
+			this.myRequest = myRequest;
+			this.token = token;
+		}
+
+		@Override
+		public void emit(TIntObjectHashMap<List<Label>> batch)
+		{
+			if (token.isCancelled()) {
+				return;
+			}
+			labelDrawer.report(myRequest, batch);
+		}
+
+	}
+
+	/**
+	 * Passes batches on to another sink while collecting them for caching.
+	 */
+	private static class CollectingSink implements LabelSink
+	{
+
+		private final LabelSink sink;
+		private final CancellationToken token;
+		final TIntObjectHashMap<List<Label>> results = new TIntObjectHashMap<>();
+
+		CollectingSink(LabelSink sink, CancellationToken token)
+		{
+			this.sink = sink;
+			this.token = token;
+		}
+
+		@Override
+		public void emit(TIntObjectHashMap<List<Label>> batch)
+		{
+			if (token.isCancelled()) {
+				return;
+			}
+			merge(results, batch);
+			sink.emit(batch);
+		}
+
+	}
+
+	/**
+	 * A token that is cancelled once the request it has been created for is no
+	 * longer the current one.
+	 */
+	private class RequestToken implements CancellationToken
+	{
+
+		private final DataRequest myRequest;
+
+		RequestToken(DataRequest myRequest)
+		{
+			this.myRequest = myRequest;
+		}
+
+		@Override
+		public boolean isCancelled()
+		{
+			return !running || request != myRequest
+					|| myRequest.configurationId != labelDrawer
+							.getConfigurationId();
+		}
+
+	}
+
+	private void queryCells(DataRequest request, CancellationToken token,
+			LabelSink sink, ForkJoinPool pool)
+	{
+		// Sort cells by their distance from the center of the region
+		int nx = request.cellMaxX - request.cellMinX + 1;
+		int ny = request.cellMaxY - request.cellMinY + 1;
+		long[] order = new long[nx * ny];
+		for (int i = 0; i < nx; i++) {
+			for (int k = 0; k < ny; k++) {
+				int dx = 2 * i - (nx - 1);
+				int dy = 2 * k - (ny - 1);
+				long distance = dx * dx + dy * dy;
+				order[i * ny + k] = (distance << 32) | (i * ny + k);
+			}
+		}
+		Arrays.sort(order);
+
+		List<CellTask> tasks = new ArrayList<>();
+		for (long entry : order) {
+			int index = (int) entry;
+			int x = request.cellMinX + index / ny;
+			int y = request.cellMinY + index % ny;
+			long key = QueryCells.key(request.zoom, x, y);
+			if (token.isCancelled()) {
+				return;
+			}
+			TIntObjectHashMap<List<Label>> labels = cache.get(key);
+			if (labels != null) {
+				sink.emit(labels);
+				continue;
+			}
+			CellTask task = new CellTask(request, x, y, key, token, sink);
+			if (pool == null) {
+				task.compute();
+			} else {
+				tasks.add(task);
+				pool.execute(task);
+			}
+		}
+		for (CellTask task : tasks) {
+			task.join();
+		}
+	}
+
+	/**
+	 * Queries a single cell and caches the results.
+	 */
+	private class CellTask extends RecursiveAction
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		private final DataRequest request;
+		private final int x, y;
+		private final long key;
+		private final CancellationToken token;
+		private final LabelSink sink;
+
+		CellTask(DataRequest request, int x, int y, long key,
+				CancellationToken token, LabelSink sink)
+		{
+			this.request = request;
+			this.x = x;
+			this.y = y;
+			this.key = key;
+			this.token = token;
+			this.sink = sink;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (token.isCancelled()) {
+				return;
+			}
+			BBox bbox = QueryCells.bbox(request.cellZoom, x, y);
+			CollectingSink cellSink = new CollectingSink(sink, token);
+			runQuery(bbox, request.zoom, token, cellSink);
+			if (token.isCancelled()) {
+				// Results may be incomplete, do not cache them
+				return;
+			}
+			cache.put(key, cellSink.results);
+		}
+
+	}
+
+	/**
+	 * Queries a region by recursively splitting it into the specified number
+	 * of sub-regions along the longer axis and merging their results.
+	 */
+	private class RegionTask
+			extends RecursiveTask<TIntObjectHashMap<List<Label>>>
+	{
+
+		private static final long serialVersionUID = 1L;
+
+		private final BBox bbox;
+		private final int zoom;
+		private final CancellationToken token;
+		private final int parts;
+
+		RegionTask(BBox bbox, int zoom, CancellationToken token, int parts)
+		{
+			this.bbox = bbox;
+			this.zoom = zoom;
+			this.token = token;
+			this.parts = parts;
+		}
+
+		@Override
+		protected TIntObjectHashMap<List<Label>> compute()
+		{
+			if (parts <= 1) {
+				if (token.isCancelled()) {
+					return new TIntObjectHashMap<>();
+				}
+				TIntObjectHashMap<List<Label>> labels = runQuery(bbox, zoom,
+						token);
+				return labels == null ? new TIntObjectHashMap<List<Label>>()
+						: labels;
+			}
+
+			double lon1 = bbox.getLon1(), lon2 = bbox.getLon2();
+			double lat1 = bbox.getLat1(), lat2 = bbox.getLat2();
+			BBox a, b;
+			if (Math.abs(lon2 - lon1) >= Math.abs(lat2 - lat1)) {
+				double mid = (lon1 + lon2) / 2;
+				a = new BBox(lon1, lat1, mid, lat2);
+				b = new BBox(mid, lat1, lon2, lat2);
+			} else {
+				double mid = (lat1 + lat2) / 2;
+				a = new BBox(lon1, lat1, lon2, mid);
+				b = new BBox(lon1, mid, lon2, lat2);
+			}
+
+			int partsA = parts / 2;
+			RegionTask taskA = new RegionTask(a, zoom, token, partsA);
+			RegionTask taskB = new RegionTask(b, zoom, token, parts - partsA);
+			taskA.fork();
+			TIntObjectHashMap<List<Label>> results = taskB.compute();
+			mergeDistinct(results, taskA.join());
+			return results;
+		}
+
+	}
+
+	/**
+	 * Add labels to the results unless they are already contained, which
+	 * happens for labels on the boundary between adjacent sub-regions.
+	 */
+	private static void mergeDistinct(TIntObjectHashMap<List<Label>> results,
+			TIntObjectHashMap<List<Label>> labels)
+	{
+		for (int key : labels.keys()) {
+			List<Label> list = results.get(key);
+			if (list == null) {
+				results.put(key, new ArrayList<>(labels.get(key)));
+				continue;
+			}
+			Set<Label> known = new HashSet<>(list);
+			for (Label label : labels.get(key)) {
+				if (known.add(label)) {
+					list.add(label);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Set the number of threads used for executing queries in parallel. A
+	 * value of 1 disables parallel execution. The change takes effect with
+	 * the next query, a running query finishes on the previous pool.
+	 */
+	public void setParallelism(int parallelism)
+	{
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	public int getParallelism()
+	{
+		return parallelism;
+	}
+
+	private static void merge(TIntObjectHashMap<List<Label>> results,
+			TIntObjectHashMap<List<Label>> labels)
+	{
+		for (int key : labels.keys()) {
+			List<Label> list = results.get(key);
+			if (list == null) {
+				list = new ArrayList<>();
+				results.put(key, list);
+			}
+			list.addAll(labels.get(key));
+		}
+	}
+
+	/**
+	 * Configure whether queries should be split into tile-aligned cells whose
+	 * results get cached.
+	 */
+	public void setQueryCells(boolean queryCells)
+	{
+		this.queryCells = queryCells;
+	}
+
+	public boolean isQueryCells()
+	{
+		return queryCells;
+	}
 
-		TIntObjectHashMap<List<Label>> labels = runQuery(bbox, myRequest.zoom);
+	public LabelQueryCache getCache()
+	{
+		return cache;
+	}
 
-		labelDrawer.report(myRequest, labels);
+	/**
+	 * Mark all cached query results as outdated, for example because the
+	 * underlying data changed. Results will be queried again once needed.
+	 */
+	public void invalidateCache()
+	{
+		cache.invalidate();
 	}
 
 	protected abstract TIntObjectHashMap<List<Label>> runQuery(BBox bbox,
 			int zoom);
 
+	/**
+	 * Execute a query. Implementations may check the token periodically and
+	 * return early (with incomplete results or null) once it has been
+	 * cancelled, such results are discarded. The default implementation
+	 * delegates to {@link #runQuery(BBox, int)}.
+	 */
+	protected TIntObjectHashMap<List<Label>> runQuery(BBox bbox, int zoom,
+			CancellationToken token)
+	{
+		return runQuery(bbox, zoom);
+	}
+
+	/**
+	 * Execute a query and pass the results to the sink, possibly in multiple
+	 * batches. Batches emitted after the token has been cancelled are
+	 * discarded. The default implementation delegates to
+	 * {@link #runQuery(BBox, int, CancellationToken)} and emits the result as
+	 * a single batch.
+	 */
+	protected void runQuery(BBox bbox, int zoom, CancellationToken token,
+			LabelSink sink)
+	{
+		TIntObjectHashMap<List<Label>> labels = runQuery(bbox, zoom, token);
+		if (labels != null && !token.isCancelled()) {
+			sink.emit(labels);
+		}
+	}
+
+	/**
+	 * @return the number of requests that have been replaced by a newer
+	 *         request before being started.
+	 */
+	public long getSupersededCount()
+	{
+		synchronized (syncObject) {
+			return superseded;
+		}
+	}
+
+	/**
+	 * @return the number of queries that have been started but whose results
+	 *         have been discarded because they were no longer needed.
+	 */
+	public long getCancelledCount()
+	{
+		synchronized (syncObject) {
+			return cancelled;
+		}
+	}
+
+	/**
+	 * Stop the worker. Its pool is shut down by the worker thread once the
+	 * running query, if any, has finished.
+	 */
 	public void destroy()
 	{
 		running = false;
@@ -38,22 +38,31 @@ public class RTreeIntersectionTester implements RectangleIntersectionTester
 
 	boolean free = true;
 
+	private final TIntProcedure procedure = new TIntProcedure() {
+
+		@Override
+		public boolean execute(int id)
+		{
+			free = false;
+			return false;
+		}
+	};
+
 	@Override
 	public boolean isFree(Rectangle rectangle)
 	{
 		free = true;
 
-		tree.intersects(rectangle, new TIntProcedure() {
-
-			@Override
-			public boolean execute(int id)
-			{
-				free = false;
-				return false;
-			}
-		});
+		tree.intersects(rectangle, procedure);
 
 		return free;
 	}
 
+	@Override
+	public void clear()
+	{
+		counter = 1;
+		tree = new RTree(1, 10);
+	}
+
 }
@@ -26,4 +26,9 @@ public interface RectangleIntersectionTester
 
 	public boolean isFree(Rectangle rectangle);
 
+	/**
+	 * Remove all rectangles, so that the tester can be reused.
+	 */
+	public void clear();
+
 }
@@ -17,33 +17,40 @@
 
 package de.topobyte.android.maps.utils.label;
 
-import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.util.Log;
 import de.topobyte.android.maps.utils.MagnificationSupport;
+import de.topobyte.android.maps.utils.trace.Trace;
 
 /**
  * This worker renders labels into Bitmaps.
+ * 
+ * The worker may be run by multiple threads at once, see {@link #start(int)}.
+ * Implementations of the rendering methods must then be safe to call
+ * concurrently, which usually means that each thread needs its own copies of
+ * the Paint objects involved.
  */
 public abstract class RenderWorker<LC extends MagnificationSupport> implements
 		Runnable
 {
 
+	public static final int DEFAULT_QUEUE_CAPACITY = 512;
+
 	// Object to synchronize on
 	private final Object syncObject = new Object();
 
 	// Synchronized access to these variables
-	private boolean working = false;
-	private boolean workAvailable = false;
-	// TODO: only accept a fixed number of requests to prevent memory leak
-	private final Set<LabelRequest<LC>> requestsSet = new HashSet<>();
-	private final List<LabelRequest<LC>> requests = new ArrayList<>();
+	private int idle = 0;
+	private final LabelRequestQueue<LC> requests = new LabelRequestQueue<>(
+			DEFAULT_QUEUE_CAPACITY);
+	// Requests currently being rendered by some thread
+	private final Set<LabelRequest<LC>> inProgress = new HashSet<>();
 
-	private boolean running = true;
+	private volatile boolean running = true;
 
 	// Ohter variables
 	private final LabelDrawer<?, LC, ?> labelDrawer;
@@ -53,18 +60,27 @@ public abstract class RenderWorker<LC extends MagnificationSupport> implements
 		this.labelDrawer = labelDrawer;
 	}
 
+	/**
+	 * Start the specified number of threads that render labels in parallel.
+	 */
+	public void start(int numThreads)
+	{
+		for (int i = 0; i < numThreads; i++) {
+			Thread thread = new Thread(this, "label-render-" + i);
+			thread.start();
+		}
+	}
+
 	public void post(LabelRequest<LC> request)
 	{
 		Log.i("labels", "Rendering request posted");
 		synchronized (syncObject) {
-			if (requestsSet.contains(request)) {
-				Log.i("labels", "But we already have it in the queue");
+			if (inProgress.contains(request)) {
+				Log.i("labels", "But we are already rendering it");
 				return;
 			}
-			requests.add(request);
-			requestsSet.add(request);
-			workAvailable = true;
-			if (!working) {
+			requests.offer(request);
+			if (idle > 0) {
 				syncObject.notify();
 			}
 		}
@@ -74,8 +90,47 @@ public abstract class RenderWorker<LC extends MagnificationSupport> implements
 	{
 		synchronized (syncObject) {
 			requests.clear();
-			requestsSet.clear();
-			workAvailable = false;
+		}
+	}
+
+	/**
+	 * Drop all queued requests that have not been posted again during the
+	 * specified frame, i.e. requests for labels that are no longer placed.
+	 */
+	public void retainFrame(int frame)
+	{
+		synchronized (syncObject) {
+			requests.retainFrame(frame);
+		}
+	}
+
+	/**
+	 * Set the maximum number of queued requests. Requests with the highest
+	 * priority values get dropped when the queue is full.
+	 */
+	public void setQueueCapacity(int capacity)
+	{
+		synchronized (syncObject) {
+			requests.setCapacity(capacity);
+		}
+	}
+
+	public int getQueueSize()
+	{
+		synchronized (syncObject) {
+			return requests.size();
+		}
+	}
+
+	/**
+	 * @return the number of requests that have been dropped without being
+	 *         rendered, either because the queue was full or because they were
+	 *         no longer needed.
+	 */
+	public long getDroppedCount()
+	{
+		synchronized (syncObject) {
+			return requests.getDropped();
 		}
 	}
 
@@ -83,44 +138,117 @@ public abstract class RenderWorker<LC extends MagnificationSupport> implements
 	public void run()
 	{
 		while (running) {
+			LabelRequest<LC> myRequest = null;
 			synchronized (syncObject) {
-				while (!workAvailable) {
+				while (running && requests.isEmpty()) {
 					try {
 						Log.i("labels",
 								"RenderWorker: no work available, waiting");
+						idle++;
 						syncObject.wait();
 					} catch (InterruptedException e) {
 						continue;
+					} finally {
+						idle--;
 					}
 				}
-				working = true;
+				if (!running) {
+					break;
+				}
+				myRequest = requests.poll();
+				inProgress.add(myRequest);
 			}
-			execute();
-			synchronized (syncObject) {
-				working = false;
+			Trace.begin("RenderWorker.execute");
+			try {
+				execute(myRequest);
+			} finally {
+				Trace.end("RenderWorker.execute");
+				synchronized (syncObject) {
+					inProgress.remove(myRequest);
+				}
 			}
 		}
 	}
 
-	private void execute()
+	private void execute(LabelRequest<LC> myRequest)
 	{
-		LabelRequest<LC> myRequest = null;
-		synchronized (syncObject) {
-			myRequest = requests.remove(requests.size() - 1);
-			requestsSet.remove(myRequest);
-			workAvailable = requests.size() > 0;
+		LabelMetrics metrics = labelDrawer.getMetrics();
+		if (myRequest.configurationId != labelDrawer.getConfigurationId()) {
+			// Outdated, the result would be dismissed anyway
+			metrics.increment(LabelMetrics.COUNTER_SKIPPED_REQUESTS);
+			return;
+		}
+		long start = metrics.start();
+		if (labelDrawer.isAtlasEnabled()
+				&& executeWithScratch(myRequest, metrics, start)) {
+			return;
 		}
 		Bitmap bitmap = createTextImage(myRequest.labelClass, myRequest.text);
+		metrics.end(LabelMetrics.STAGE_RASTERIZE, start);
 		labelDrawer.report(myRequest, bitmap);
 	}
 
+	/*
+	 * Render into a pooled scratch bitmap that the UI thread copies into the
+	 * atlas and then returns to the pool.
+	 */
+	private boolean executeWithScratch(LabelRequest<LC> request,
+			LabelMetrics metrics, long start)
+	{
+		int width = getTextImageWidth(request.labelClass, request.text);
+		int height = getTextImageHeight(request.labelClass);
+		if (width <= 0 || height <= 0) {
+			return false;
+		}
+
+		ScratchBitmap scratch = labelDrawer.obtainScratch();
+		scratch.prepare(width, height);
+
+		drawTextImage(request.labelClass, request.text, scratch.canvas);
+		metrics.end(LabelMetrics.STAGE_RASTERIZE, start);
+		labelDrawer.report(request, scratch, width, height);
+		return true;
+	}
+
 	protected abstract Bitmap createTextImage(LC labelClass, String name);
 
+	/*
+	 * The following methods allow rendering labels without allocating a
+	 * bitmap for each of them. Implementations that support this override all
+	 * three of them.
+	 */
+
+	/**
+	 * @return the width of the image for the specified label or -1 if
+	 *         rendering into an existing canvas is not supported.
+	 */
+	protected int getTextImageWidth(LC labelClass, String name)
+	{
+		return -1;
+	}
+
+	/**
+	 * @return the height of images for the specified label class or -1 if
+	 *         rendering into an existing canvas is not supported.
+	 */
+	protected int getTextImageHeight(LC labelClass)
+	{
+		return -1;
+	}
+
+	/**
+	 * Render the label's image to the upper left corner of the canvas.
+	 */
+	protected void drawTextImage(LC labelClass, String name, Canvas canvas)
+	{
+		// not supported by default
+	}
+
 	public void destroy()
 	{
 		running = false;
 		synchronized (syncObject) {
-			syncObject.notify();
+			syncObject.notifyAll();
 		}
 	}
 }
@@ -0,0 +1,64 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+/**
+ * A reusable bitmap that a {@link RenderWorker} renders a label into before it
+ * gets copied to a {@link LabelAtlas} on the UI thread. Instances are pooled
+ * by the {@link LabelDrawer} and passed between threads, each instance is
+ * only used by one thread at a time.
+ */
+class ScratchBitmap
+{
+
+	Bitmap bitmap = null;
+	Canvas canvas = null;
+
+	/**
+	 * Make sure the bitmap has at least the specified size and clear it.
+	 */
+	void prepare(int width, int height)
+	{
+		if (bitmap == null || bitmap.getWidth() < width
+				|| bitmap.getHeight() < height) {
+			int w = width;
+			int h = height;
+			if (bitmap != null) {
+				w = Math.max(w, bitmap.getWidth());
+				h = Math.max(h, bitmap.getHeight());
+				bitmap.recycle();
+			}
+			bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+			canvas = new Canvas(bitmap);
+		}
+		bitmap.eraseColor(0);
+	}
+
+	void recycle()
+	{
+		if (bitmap != null) {
+			bitmap.recycle();
+			bitmap = null;
+			canvas = null;
+		}
+	}
+
+}
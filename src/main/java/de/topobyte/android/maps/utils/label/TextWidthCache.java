@@ -0,0 +1,115 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.label;
+
+import com.slimjars.dist.gnu.trove.map.hash.TLongObjectHashMap;
+import com.slimjars.dist.gnu.trove.map.hash.TObjectIntHashMap;
+
+/**
+ * A cache of label widths keyed by (label class id, text size, text). The
+ * cache is independent of the set of label candidates, so widths survive
+ * eviction of candidates as well as changes of the magnification back and
+ * forth.
+ * 
+ * If the number of entries exceeds the limit, the cache is cleared.
+ */
+public class TextWidthCache
+{
+
+	public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+	private static final int NO_ENTRY = -1;
+
+	private final TLongObjectHashMap<TObjectIntHashMap<String>> widths = new TLongObjectHashMap<>();
+
+	private int maxEntries;
+	private int size = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+
+	public TextWidthCache()
+	{
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	public TextWidthCache(int maxEntries)
+	{
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @return the cached width or -1 if the width is unknown.
+	 */
+	public synchronized int get(int classId, int textSize, String text)
+	{
+		TObjectIntHashMap<String> map = widths.get(key(classId, textSize));
+		if (map == null || !map.containsKey(text)) {
+			misses++;
+			return NO_ENTRY;
+		}
+		hits++;
+		return map.get(text);
+	}
+
+	public synchronized void put(int classId, int textSize, String text,
+			int width)
+	{
+		if (size >= maxEntries) {
+			widths.clear();
+			size = 0;
+		}
+		long key = key(classId, textSize);
+		TObjectIntHashMap<String> map = widths.get(key);
+		if (map == null) {
+			map = new TObjectIntHashMap<>();
+			widths.put(key, map);
+		}
+		if (!map.containsKey(text)) {
+			size++;
+		}
+		map.put(text, width);
+	}
+
+	public synchronized void clear()
+	{
+		widths.clear();
+		size = 0;
+	}
+
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	private static long key(int classId, int textSize)
+	{
+		return ((long) classId << 32) | (textSize & 0xFFFFFFFFL);
+	}
+
+}
@@ -39,11 +39,11 @@ import de.topobyte.android.maps.utils.OnDrawListener;
 import de.topobyte.android.maps.utils.events.EventManager;
 import de.topobyte.android.maps.utils.events.EventManagerManaged;
 import de.topobyte.android.maps.utils.events.Vector2;
+import de.topobyte.android.maps.utils.trace.Trace;
 import de.topobyte.android.mapview.ImageManagerSourceRam;
 import de.topobyte.android.mapview.ReferenceCountedBitmap;
 import de.topobyte.interactiveview.Zoomable;
 import de.topobyte.jeography.core.Tile;
-import de.topobyte.jeography.core.TileOnWindow;
 import de.topobyte.jeography.core.mapwindow.MapWindow;
 import de.topobyte.jeography.core.mapwindow.MapWindowChangeListener;
 import de.topobyte.jeography.core.mapwindow.SteplessMapWindow;
@@ -86,14 +86,43 @@ public class BaseMapView extends View implements
 	protected float density;
 
 	protected SteplessMapWindow mapWindow;
+	// Owned by the tile renderer, which updates it in place
 	protected SteppedMapWindow tileMapWindow;
 	protected double tileScale;
 
 	protected ImageManagerSourceRam<Tile, ReferenceCountedBitmap> imageManager;
 
+	// Determines and draws the tiles of each frame
+	protected TileRenderer<ReferenceCountedBitmap> tileRenderer = new TileRenderer<>(
+			null);
+	private final BitmapTileDrawer tileDrawer = new BitmapTileDrawer();
+	// Keeps the tile layer between frames if enabled
+	private TileBackBuffer<ReferenceCountedBitmap> backBuffer = null;
+
 	private Paint paintImages = new Paint();
 
 	private boolean drawGrid = false;
+	private Paint paintGrid = new Paint();
+	private RectF gridRect = new RectF();
+
+	private boolean allocationFreeFrames = false;
+
+	// The last fully composed frame, drawn transformed during zoom gestures
+	private FrameSnapshot snapshot = null;
+	private int snapshotSettleDelay = 150;
+	private double snapshotMaxZoomDelta = 1;
+	private boolean zoomGesture = false;
+
+	private final Runnable settleZoomGesture = new Runnable() {
+
+		@Override
+		public void run()
+		{
+			zoomGesture = false;
+			invalidate();
+		}
+
+	};
 	private float moveSpeed = 1.0f;
 
 	protected float magnification = 1;
@@ -108,6 +137,9 @@ public class BaseMapView extends View implements
 		paintImages.setFilterBitmap(true);
 		paintImages.setDither(true);
 
+		paintGrid.setColor(0xff000000);
+		paintGrid.setStyle(Paint.Style.STROKE);
+
 		/* determine screen size to find sane value for the cache size */
 		WindowManager windowManager = (WindowManager) getContext()
 				.getSystemService(Context.WINDOW_SERVICE);
@@ -136,13 +168,20 @@ public class BaseMapView extends View implements
 	protected void init(
 			ImageManagerSourceRam<Tile, ReferenceCountedBitmap> imageManager)
 	{
+		if (this.imageManager != null) {
+			this.imageManager.removeLoadListener(this);
+		}
 		this.imageManager = imageManager;
+		tileRenderer.setSource(new ImageManagerTileSource(imageManager));
 		imageManager.addLoadListener(this);
+		invalidateTiles();
 	}
 
 	public void destroy()
 	{
 		imageManager.removeLoadListener(this);
+		setSnapshotGestures(false);
+		setBackBuffer(false);
 	}
 
 	@Override
@@ -161,18 +200,17 @@ public class BaseMapView extends View implements
 
 	protected void setupTileMapWindow()
 	{
-		BBox bbox = mapWindow.getBoundingBox();
-		double realZoom = mapWindow.getZoom();
-		int tileZoom = (int) Math.round(realZoom);
+		tileRenderer.setup(mapWindow);
+		tileScale = tileRenderer.getTileScale();
+		tileMapWindow = tileRenderer.getTileMapWindow();
 
-		tileScale = Math.pow(2, realZoom - tileZoom);
+		if (allocationFreeFrames) {
+			return;
+		}
 
-		int tileWindowWidth = (int) Math.ceil(mapWindow.getWidth() / tileScale);
-		int tileWindowHeight = (int) Math.ceil(mapWindow.getHeight()
-				/ tileScale);
-		tileMapWindow = new SteppedMapWindow(tileWindowWidth, tileWindowHeight,
-				tileZoom, mapWindow.getCenterLon(), mapWindow.getCenterLat());
-		tileMapWindow.setTileSize(mapWindow.getWorldScale());
+		BBox bbox = mapWindow.getBoundingBox();
+		double realZoom = mapWindow.getZoom();
+		int tileZoom = tileRenderer.getTileZoom();
 
 		Log.i("mapwindow", "bbox: " + bbox);
 		Log.i("mapwindow", String.format("width: %d, height: %d",
@@ -190,6 +228,15 @@ public class BaseMapView extends View implements
 	 * Information
 	 */
 
+	/**
+	 * @return the stepped map window the tiles are drawn from, the same
+	 *         instance as the {@link #tileMapWindow} field.
+	 */
+	public SteppedMapWindow getTileMapWindow()
+	{
+		return tileRenderer.getTileMapWindow();
+	}
+
 	@Override
 	public MapWindow getMapWindow()
 	{
@@ -227,181 +274,109 @@ public class BaseMapView extends View implements
 	{
 		super.onDraw(canvas);
 
-		// first cancel pending jobs
-		imageManager.cancelJobs();
+		Trace.begin("BaseMapView.onDraw");
 
-		// renew current tiles' cache status
-		for (TileOnWindow tile : tileMapWindow) {
-			imageManager.willNeed(tile);
+		if (snapshot == null) {
+			compose(canvas);
+		} else if (zoomGesture
+				&& snapshot.isUsable(mapWindow, snapshotMaxZoomDelta)) {
+			snapshot.draw(canvas, mapWindow, paintImages);
+		} else {
+			compose(snapshot.begin(mapWindow));
+			snapshot.draw(canvas);
 		}
 
+		Trace.end("BaseMapView.onDraw");
+	}
+
+	/*
+	 * Draw tiles, the grid and the draw listeners for the current state of the
+	 * map window.
+	 */
+	private void compose(Canvas canvas)
+	{
 		int tw = mapWindow.getWorldScale();
 		int th = mapWindow.getWorldScale();
 
-		// draw all the tiles
-		for (TileOnWindow tile : tileMapWindow) {
-			// calculate priority
-			int priority = calculatePriority(tile, tileMapWindow);
-
-			// request
-			ReferenceCountedBitmap rbitmap = imageManager.get(tile, priority);
-
-			if (rbitmap != null) {
-				drawTile(canvas, tile, rbitmap, tw, th);
-			} else {
-				boolean done = drawUpperTile(canvas, tile, tw, th);
-				if (!done) {
-					drawLowerTiles(canvas, tile, tw, th);
-				}
-			}
+		// request and draw all the tiles
+		TileBackBuffer<ReferenceCountedBitmap> backBuffer = this.backBuffer;
+		if (backBuffer == null) {
+			tileDrawer.canvas = canvas;
+			tileRenderer.render(tileDrawer, tw, th);
+		} else {
+			tileDrawer.canvas = backBuffer.begin(tileRenderer);
+			tileRenderer.render(backBuffer, tw, th);
+			backBuffer.draw(canvas);
 		}
+		tileDrawer.canvas = null;
 
 		// draw the grid
 		if (drawGrid) {
-			Paint paint = new Paint();
-			paint.setColor(0xff000000);
-			paint.setStyle(Paint.Style.STROKE);
-			for (TileOnWindow tile : tileMapWindow) {
-				double ddx = tile.getDX() * tileScale;
-				double ddy = tile.getDY() * tileScale;
-
-				RectF rect = new RectF((float) ddx, (float) ddy,
-						(float) (ddx + tw * tileScale), (float) (ddy + th
-								* tileScale));
-				canvas.drawRect(rect, paint);
+			double size = tw * tileScale;
+			for (int ty = tileRenderer.getMinTileY(); ty <= tileRenderer
+					.getMaxTileY(); ty++) {
+				double ddy = tileRenderer.getTileY(ty);
+				for (int tx = tileRenderer.getMinTileX(); tx <= tileRenderer
+						.getMaxTileX(); tx++) {
+					double ddx = tileRenderer.getTileX(tx);
+					gridRect.set((float) ddx, (float) ddy,
+							(float) (ddx + size), (float) (ddy + size));
+					canvas.drawRect(gridRect, paintGrid);
+				}
 			}
 		}
 
 		// activate onDrawListeners
-		for (OnDrawListener<BaseMapView> listener : onDrawListeners) {
-			listener.onDraw(this, canvas);
+		for (int i = 0; i < onDrawListeners.size(); i++) {
+			onDrawListeners.get(i).onDraw(this, canvas);
 		}
 	}
 
-	private Rect src = new Rect();
-	private Rect dst = new Rect();
-
-	private void drawTile(Canvas canvas, TileOnWindow tile,
-			ReferenceCountedBitmap rcBitmap, int tw, int th)
+	/*
+	 * Draws the tiles determined by the tile renderer to the canvas.
+	 */
+	private class BitmapTileDrawer implements TileDrawer<ReferenceCountedBitmap>
 	{
-		rcBitmap.increment();
-		Bitmap bitmap = rcBitmap.getBitmap();
-		bitmap.setDensity(canvas.getDensity());
 
-		double ddx = tile.getDX() * tileScale;
-		double ddy = tile.getDY() * tileScale;
+		private Canvas canvas;
 
-		int left = (int) Math.round(ddx);
-		int top = (int) Math.round(ddy);
-		int right = (int) Math.round(ddx + tileScale * tw);
-		int bottom = (int) Math.round(ddy + tileScale * th);
-		dst.set(left, top, right, bottom);
+		private Rect src = new Rect();
+		private Rect dst = new Rect();
 
-		canvas.drawBitmap(bitmap, null, dst, paintImages);
-		rcBitmap.decrement();
-	}
+		@Override
+		public void draw(ReferenceCountedBitmap rcBitmap, int left, int top,
+				int right, int bottom)
+		{
+			rcBitmap.increment();
+			Bitmap bitmap = rcBitmap.getBitmap();
+			bitmap.setDensity(canvas.getDensity());
 
-	private boolean drawUpperTile(Canvas canvas, TileOnWindow tile, int tw,
-			int th)
-	{
-		int zoom = tile.getZoom() - 1;
-		if (zoom < 1) {
-			return false;
+			dst.set(left, top, right, bottom);
+			canvas.drawBitmap(bitmap, null, dst, paintImages);
+			rcBitmap.decrement();
 		}
-		int ty;
-		if (tile.getTy() >= 0) {
-			ty = tile.getTy() / 2;
-		} else {
-			ty = -((-tile.getTy() + 1) / 2);
-		}
-		int tx = tile.getTx() / 2;
-		int txa = tile.getTx() % 2;
-		int tya = tile.getTy() % 2;
-		Tile t = new Tile(zoom, tx, ty);
-		ReferenceCountedBitmap rc = imageManager.getButDoNotProduce(t);
-		if (rc == null) {
-			return false;
-		}
-
-		rc.increment();
-		Bitmap bitmap = rc.getBitmap();
-		bitmap.setDensity(canvas.getDensity());
-
-		double ddx = tile.getDX() * tileScale;
-		double ddy = tile.getDY() * tileScale;
-
-		int baseX = txa == 0 ? 0 : tw / 2;
-		int baseY = tya == 0 ? 0 : th / 2;
-
-		src.set(baseX, baseY, baseX + tw / 2, baseY + th / 2);
-
-		int left = (int) Math.round(ddx);
-		int top = (int) Math.round(ddy);
-		int right = (int) Math.round(ddx + tileScale * tw);
-		int bottom = (int) Math.round(ddy + tileScale * th);
-		dst.set(left, top, right, bottom);
-
-		canvas.drawBitmap(bitmap, src, dst, paintImages);
-		rc.decrement();
-		return true;
-	}
-
-	private void drawLowerTiles(Canvas canvas, TileOnWindow tile, int tw, int th)
-	{
-		double ddx = tile.getDX() * tileScale;
-		double ddy = tile.getDY() * tileScale;
 
-		int zoom = tile.getZoom() + 1;
-		for (int i = 0; i < 2; i++) {
-			int tx = tile.getTx() * 2 + i;
-			for (int k = 0; k < 2; k++) {
-				int ty = tile.getTy() * 2 + k;
-				Tile t = new Tile(zoom, tx, ty);
-				ReferenceCountedBitmap rc = imageManager.getButDoNotProduce(t);
-				if (rc == null) {
-					continue;
-				}
-
-				rc.increment();
-				Bitmap bitmap = rc.getBitmap();
-				bitmap.setDensity(canvas.getDensity());
-
-				double dstLeft = ddx + i * tw * tileScale / 2;
-				double dstTop = ddy + k * th * tileScale / 2;
-
-				int left = (int) Math.round(dstLeft);
-				int top = (int) Math.round(dstTop);
-				int right = (int) Math.round(dstLeft + tileScale / 2 * tw);
-				int bottom = (int) Math.round(dstTop + tileScale / 2 * th);
-				dst.set(left, top, right, bottom);
-
-				canvas.drawBitmap(bitmap, null, dst, paintImages);
-				rc.decrement();
-			}
+		@Override
+		public void draw(ReferenceCountedBitmap rcBitmap, int srcLeft,
+				int srcTop, int srcRight, int srcBottom, int left, int top,
+				int right, int bottom)
+		{
+			rcBitmap.increment();
+			Bitmap bitmap = rcBitmap.getBitmap();
+			bitmap.setDensity(canvas.getDensity());
+
+			src.set(srcLeft, srcTop, srcRight, srcBottom);
+			dst.set(left, top, right, bottom);
+			canvas.drawBitmap(bitmap, src, dst, paintImages);
+			rcBitmap.decrement();
 		}
-	}
 
-	/*
-	 * Calculate the priority of a tile within the rendering queue. The priority
-	 * is lower the nearer a tile's center is to the center of the current
-	 * screen. Tiles with a lower priority get rendered first.
-	 */
-	private int calculatePriority(TileOnWindow tile, MapWindow mapWindow)
-	{
-		int width = mapWindow.getWidth();
-		int height = mapWindow.getHeight();
-		int midX = width / 2;
-		int midY = height / 2;
-		int tX = tile.getDX() + Tile.SIZE / 2;
-		int tY = tile.getDY() + Tile.SIZE / 2;
-		int dX = tX - midX;
-		int dY = tY - midY;
-		int dist = dX * dX + dY * dY;
-		return dist;
 	}
 
 	protected int calculateCacheSize()
 	{
+		SteppedMapWindow tileMapWindow = getTileMapWindow();
+
 		// Calculate based on tile map window size and tile size
 		int tw = tileMapWindow.getTileWidth();
 		int th = tileMapWindow.getTileHeight();
@@ -446,12 +421,36 @@ public class BaseMapView extends View implements
 	@Override
 	public void loadFailed(Tile tile)
 	{
-		// ignore
+		// allow the tile to be requested again
+		tileRenderer.requestFailed(tile);
 	}
 
 	@Override
 	public void loaded(Tile tile, ReferenceCountedBitmap image)
 	{
+		Trace.begin("BaseMapView.loaded");
+		TileBackBuffer<ReferenceCountedBitmap> backBuffer = this.backBuffer;
+		if (backBuffer != null) {
+			backBuffer.getRegion().invalidate(tile);
+		}
+		postInvalidate();
+		Trace.end("BaseMapView.loaded");
+	}
+
+	/**
+	 * Draw all tiles again with the next frame instead of reusing the pixels
+	 * kept by the back buffer or the gesture snapshot. Call this on the UI
+	 * thread when the images of tiles that have already been drawn changed,
+	 * e.g. after clearing the image manager or switching the map style.
+	 */
+	public void invalidateTiles()
+	{
+		if (backBuffer != null) {
+			backBuffer.getRegion().invalidateAll();
+		}
+		if (snapshot != null) {
+			snapshot.invalidate();
+		}
 		postInvalidate();
 	}
 
@@ -465,19 +464,14 @@ public class BaseMapView extends View implements
 			return;
 		}
 		this.magnification = magnification;
-
-		tileScaleFactor = 1;
-		userScale = 1;
-
-		float maxTileScale = 2;
-		if (magnification <= maxTileScale) {
-			tileScaleFactor = magnification;
-		} else {
-			tileScaleFactor = maxTileScale;
-			userScale = magnification / tileScaleFactor;
+		if (gestureTrace != null) {
+			gestureTrace.recordMagnification(magnification);
 		}
 
-		int tileSize = Math.round(tileScaleFactor * Tile.SIZE);
+		tileScaleFactor = MapGestures.getTileScaleFactor(magnification);
+		userScale = magnification / tileScaleFactor;
+
+		int tileSize = MapGestures.getTileSize(magnification);
 		mapWindow.setWorldScale(tileSize);
 
 		postInvalidate();
@@ -500,6 +494,28 @@ public class BaseMapView extends View implements
 	private final EventManager<BaseMapView> eventManager = new EventManager<>(
 			this, true);
 
+	private GestureTrace gestureTrace = null;
+
+	/**
+	 * Record moves, zooms around a point and magnification changes to the
+	 * specified trace, starting from the current state of the map window. Pass
+	 * null to stop recording.
+	 */
+	public void setGestureTrace(GestureTrace trace)
+	{
+		if (trace != null) {
+			trace.start(mapWindow.getWidth(), mapWindow.getHeight(),
+					mapWindow.getCenterLon(), mapWindow.getCenterLat(),
+					mapWindow.getZoom(), magnification);
+		}
+		gestureTrace = trace;
+	}
+
+	public GestureTrace getGestureTrace()
+	{
+		return gestureTrace;
+	}
+
 	public EventManager<BaseMapView> getEventManager()
 	{
 		return eventManager;
@@ -524,6 +540,10 @@ public class BaseMapView extends View implements
 	{
 		int dx = Math.round(distance.getX());
 		int dy = Math.round(distance.getY());
+		if (gestureTrace != null) {
+			gestureTrace.recordMove(dx, dy);
+		}
+		tileRenderer.getMotion().moved(dx, dy, System.nanoTime());
 		mapWindow.move(dx, dy);
 		postInvalidate();
 	}
@@ -533,10 +553,26 @@ public class BaseMapView extends View implements
 	{
 		double zoom = mapWindow.getZoom();
 		double targetZoom = zoom + zoomDistance;
+		tileRenderer.getMotion().zoomed(zoomDistance, System.nanoTime());
+		zoomGestureStep();
 		mapWindow.zoom(targetZoom);
 		postInvalidate();
 	}
 
+	/*
+	 * Keep drawing the snapshot until no zoom steps happened for the settle
+	 * delay.
+	 */
+	private void zoomGestureStep()
+	{
+		if (snapshot == null) {
+			return;
+		}
+		zoomGesture = true;
+		removeCallbacks(settleZoomGesture);
+		postDelayed(settleZoomGesture, snapshotSettleDelay);
+	}
+
 	@Override
 	public void zoomIn()
 	{
@@ -554,30 +590,12 @@ public class BaseMapView extends View implements
 	@Override
 	public void zoom(float x, float y, float zoomDistance)
 	{
-		// (lon, lat) that we want to keep fixed at the screen point (x, y)
-		// double flon = mapWindow.getPositionLon(Math.round(x / density));
-		// double flat = mapWindow.getPositionLat(Math.round(y / density));
-		double flon = mapWindow.getPositionLon(Math.round(x));
-		double flat = mapWindow.getPositionLat(Math.round(y));
-
-		double zoom = mapWindow.getZoom();
-		double targetZoom = zoom + zoomDistance;
-		if (targetZoom < mapWindow.getMinZoom()) {
-			targetZoom = mapWindow.getMinZoom();
+		if (gestureTrace != null) {
+			gestureTrace.recordZoom(x, y, zoomDistance);
 		}
-		if (targetZoom > mapWindow.getMaxZoom()) {
-			targetZoom = mapWindow.getMaxZoom();
-		}
-		mapWindow.zoom(targetZoom);
-
-		// (x, y) of the (lon, lat) after applying the zoom change
-		double fx = mapWindow.getX(flon);
-		double fy = mapWindow.getY(flat);
-		// shift the map to keep the (lon, lat) fixed
-		// mapWindow.move((int) Math.round(fx - x / density),
-		// (int) Math.round(fy - y / density));
-		mapWindow.move((int) Math.round(fx - x), (int) Math.round(fy - y));
-
+		tileRenderer.getMotion().zoomed(zoomDistance, System.nanoTime());
+		zoomGestureStep();
+		MapGestures.zoom(mapWindow, x, y, zoomDistance);
 		postInvalidate();
 	}
 
@@ -634,6 +652,98 @@ public class BaseMapView extends View implements
 		this.drawGrid = drawGrid;
 	}
 
+	public boolean isSnapshotGestures()
+	{
+		return snapshot != null;
+	}
+
+	/**
+	 * Compose frames into an offscreen image and draw that image scaled and
+	 * translated during zoom gestures instead of composing intermediate frames
+	 * from tiles and draw listeners. Full composition runs again once no zoom
+	 * steps happened for the settle delay, or when the zoom level moved away
+	 * from the snapshot by more than the maximum zoom delta.
+	 * 
+	 * This requires an offscreen image of the size of the view and one
+	 * additional blit for each fully composed frame. Draw listeners that draw
+	 * in screen coordinates are transformed along with the map during
+	 * gestures.
+	 */
+	public void setSnapshotGestures(boolean enabled)
+	{
+		if (enabled && snapshot == null) {
+			snapshot = new FrameSnapshot();
+		} else if (!enabled && snapshot != null) {
+			snapshot.recycle();
+			snapshot = null;
+			zoomGesture = false;
+			removeCallbacks(settleZoomGesture);
+		}
+		postInvalidate();
+	}
+
+	public boolean isBackBuffer()
+	{
+		return backBuffer != null;
+	}
+
+	/**
+	 * Keep the tile layer in an offscreen image between frames. When the map
+	 * is moved without zooming, only the newly exposed strips at the edges of
+	 * the view and tiles that finished loading are drawn, and the image is
+	 * drawn to the view with a single pass of blits.
+	 * 
+	 * This requires an offscreen image of the size of the view. The grid and
+	 * draw listeners are still drawn on top of the tile layer each frame.
+	 */
+	public void setBackBuffer(boolean enabled)
+	{
+		if (enabled && backBuffer == null) {
+			backBuffer = new TileBackBuffer<>(tileDrawer);
+			tileRenderer.setDrawRegion(backBuffer.getRegion());
+		} else if (!enabled && backBuffer != null) {
+			tileRenderer.setDrawRegion(null);
+			backBuffer.recycle();
+			backBuffer = null;
+		}
+		postInvalidate();
+	}
+
+	/**
+	 * @param millis
+	 *            the time without zoom steps after which a zoom gesture is
+	 *            considered finished.
+	 */
+	public void setSnapshotSettleDelay(int millis)
+	{
+		snapshotSettleDelay = millis;
+	}
+
+	/**
+	 * @param zoomDelta
+	 *            the maximum difference in zoom levels between the snapshot
+	 *            and the map window for drawing the snapshot.
+	 */
+	public void setSnapshotMaxZoomDelta(double zoomDelta)
+	{
+		snapshotMaxZoomDelta = zoomDelta;
+	}
+
+	public boolean isAllocationFreeFrames()
+	{
+		return allocationFreeFrames;
+	}
+
+	/**
+	 * Avoid heap allocations while drawing frames and reacting to changes of
+	 * the map window, so that gestures are not interrupted by garbage
+	 * collection. Logging of map window changes is disabled.
+	 */
+	public void setAllocationFreeFrames(boolean allocationFreeFrames)
+	{
+		this.allocationFreeFrames = allocationFreeFrames;
+	}
+
 	@Override
 	public void longClick(float x, float y)
 	{
@@ -0,0 +1,134 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import de.topobyte.jeography.core.mapwindow.SteplessMapWindow;
+
+/**
+ * An offscreen image of a fully composed frame along with the state of the
+ * map window it has been composed for. The image can be drawn for a different
+ * state of the map window by transforming it with a matrix, which is a lot
+ * cheaper than composing a frame from tiles and overlays.
+ */
+public class FrameSnapshot
+{
+
+	private Bitmap bitmap = null;
+	private Canvas canvas = null;
+	private final Matrix matrix = new Matrix();
+
+	private boolean valid = false;
+	private int width;
+	private int height;
+	private int worldScale;
+	private double lon;
+	private double lat;
+	private double zoom;
+
+	/**
+	 * Prepare the snapshot for composing a frame for the current state of the
+	 * map window. The image gets cleared.
+	 * 
+	 * @return the canvas to compose the frame on.
+	 */
+	public Canvas begin(SteplessMapWindow mapWindow)
+	{
+		int w = mapWindow.getWidth();
+		int h = mapWindow.getHeight();
+		if (bitmap == null || w != width || h != height) {
+			recycle();
+			bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+			canvas = new Canvas(bitmap);
+		}
+		bitmap.eraseColor(0);
+
+		width = w;
+		height = h;
+		worldScale = mapWindow.getWorldScale();
+		lon = mapWindow.getCenterLon();
+		lat = mapWindow.getCenterLat();
+		zoom = mapWindow.getZoom();
+		valid = true;
+		return canvas;
+	}
+
+	/**
+	 * @return whether the snapshot can be drawn for the current state of the
+	 *         map window, i.e. the window has the same size and tile scale and
+	 *         the zoom level differs by at most the specified amount.
+	 */
+	public boolean isUsable(SteplessMapWindow mapWindow, double maxZoomDelta)
+	{
+		return valid && mapWindow.getWidth() == width
+				&& mapWindow.getHeight() == height
+				&& mapWindow.getWorldScale() == worldScale
+				&& Math.abs(mapWindow.getZoom() - zoom) <= maxZoomDelta;
+	}
+
+	/**
+	 * Draw the snapshot as it has been composed.
+	 */
+	public void draw(Canvas target)
+	{
+		bitmap.setDensity(target.getDensity());
+		target.drawBitmap(bitmap, 0, 0, null);
+	}
+
+	/**
+	 * Draw the snapshot transformed to the current state of the map window.
+	 */
+	public void draw(Canvas target, SteplessMapWindow mapWindow, Paint paint)
+	{
+		// The snapshot's center moved to here and got scaled by this factor
+		float x = (float) mapWindow.getX(lon);
+		float y = (float) mapWindow.getY(lat);
+		float scale = (float) Math.pow(2, mapWindow.getZoom() - zoom);
+
+		matrix.setScale(scale, scale);
+		matrix.postTranslate(x - scale * width / 2f, y - scale * height / 2f);
+
+		bitmap.setDensity(target.getDensity());
+		target.drawBitmap(bitmap, matrix, paint);
+	}
+
+	/**
+	 * Mark the snapshot as outdated, so that it is not drawn anymore.
+	 */
+	public void invalidate()
+	{
+		valid = false;
+	}
+
+	/**
+	 * Release the offscreen image.
+	 */
+	public void recycle()
+	{
+		valid = false;
+		if (bitmap != null) {
+			bitmap.recycle();
+			bitmap = null;
+			canvas = null;
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+/**
+ * A gesture applied to a map view, see {@link GestureTrace}.
+ */
+public class GestureEvent
+{
+
+	public enum Type {
+		MOVE,
+		ZOOM,
+		MAGNIFICATION
+	}
+
+	private final long time;
+	private final Type type;
+	private final float x;
+	private final float y;
+	private final float value;
+
+	/**
+	 * @param time
+	 *            milliseconds since the start of the trace.
+	 * @param x
+	 *            the distance moved horizontally or the x coordinate of the
+	 *            zoom center.
+	 * @param y
+	 *            the distance moved vertically or the y coordinate of the zoom
+	 *            center.
+	 * @param value
+	 *            the zoom distance or the magnification.
+	 */
+	public GestureEvent(long time, Type type, float x, float y, float value)
+	{
+		this.time = time;
+		this.type = type;
+		this.x = x;
+		this.y = y;
+		this.value = value;
+	}
+
+	public long getTime()
+	{
+		return time;
+	}
+
+	public Type getType()
+	{
+		return type;
+	}
+
+	public float getX()
+	{
+		return x;
+	}
+
+	public float getY()
+	{
+		return y;
+	}
+
+	public float getValue()
+	{
+		return value;
+	}
+
+}
@@ -0,0 +1,218 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import de.topobyte.android.maps.utils.map.GestureEvent.Type;
+
+/**
+ * A recording of the gestures applied to a map view, starting from a known
+ * state of the map window, that can be replayed deterministically. Set an
+ * instance using {@link BaseMapView#setGestureTrace(GestureTrace)} to record
+ * gestures.
+ * 
+ * Traces are stored as text, one line per event:
+ * 
+ * <pre>
+ * start &lt;width&gt; &lt;height&gt; &lt;lon&gt; &lt;lat&gt; &lt;zoom&gt; &lt;magnification&gt;
+ * &lt;time&gt; move &lt;dx&gt; &lt;dy&gt;
+ * &lt;time&gt; zoom &lt;x&gt; &lt;y&gt; &lt;distance&gt;
+ * &lt;time&gt; magnification &lt;magnification&gt;
+ * </pre>
+ * 
+ * Times are milliseconds since the start of the trace. Empty lines and lines
+ * starting with '#' are ignored.
+ */
+public class GestureTrace
+{
+
+	private int width;
+	private int height;
+	private double lon;
+	private double lat;
+	private double zoom;
+	private float magnification = 1;
+
+	private final List<GestureEvent> events = new ArrayList<>();
+	private long startNanos;
+
+	/**
+	 * Reset the trace to start from the specified state of the map window.
+	 */
+	public synchronized void start(int width, int height, double lon,
+			double lat, double zoom, float magnification)
+	{
+		this.width = width;
+		this.height = height;
+		this.lon = lon;
+		this.lat = lat;
+		this.zoom = zoom;
+		this.magnification = magnification;
+		events.clear();
+		startNanos = System.nanoTime();
+	}
+
+	private long now()
+	{
+		return (System.nanoTime() - startNanos) / 1000000;
+	}
+
+	public synchronized void recordMove(float dx, float dy)
+	{
+		events.add(new GestureEvent(now(), Type.MOVE, dx, dy, 0));
+	}
+
+	public synchronized void recordZoom(float x, float y, float zoomDistance)
+	{
+		events.add(new GestureEvent(now(), Type.ZOOM, x, y, zoomDistance));
+	}
+
+	public synchronized void recordMagnification(float magnification)
+	{
+		events.add(
+				new GestureEvent(now(), Type.MAGNIFICATION, 0, 0, magnification));
+	}
+
+	/**
+	 * Add an event with an explicit time, for example to create synthetic
+	 * traces. Events need to be added in chronological order.
+	 */
+	public synchronized void add(GestureEvent event)
+	{
+		events.add(event);
+	}
+
+	public synchronized List<GestureEvent> getEvents()
+	{
+		return Collections.unmodifiableList(new ArrayList<>(events));
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	public double getLon()
+	{
+		return lon;
+	}
+
+	public double getLat()
+	{
+		return lat;
+	}
+
+	public double getZoom()
+	{
+		return zoom;
+	}
+
+	public float getMagnification()
+	{
+		return magnification;
+	}
+
+	public synchronized void write(Writer writer) throws IOException
+	{
+		writer.write(String.format(Locale.US, "start %d %d %f %f %f %f\n",
+				width, height, lon, lat, zoom, magnification));
+		for (GestureEvent event : events) {
+			switch (event.getType()) {
+			case MOVE:
+				writer.write(String.format(Locale.US, "%d move %f %f\n",
+						event.getTime(), event.getX(), event.getY()));
+				break;
+			case ZOOM:
+				writer.write(String.format(Locale.US, "%d zoom %f %f %f\n",
+						event.getTime(), event.getX(), event.getY(),
+						event.getValue()));
+				break;
+			case MAGNIFICATION:
+				writer.write(String.format(Locale.US, "%d magnification %f\n",
+						event.getTime(), event.getValue()));
+				break;
+			}
+		}
+		writer.flush();
+	}
+
+	public static GestureTrace read(Reader reader) throws IOException
+	{
+		GestureTrace trace = new GestureTrace();
+		BufferedReader in = new BufferedReader(reader);
+		String line;
+		int number = 0;
+		while ((line = in.readLine()) != null) {
+			number++;
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] parts = line.split("\\s+");
+			try {
+				if (parts[0].equals("start")) {
+					trace.width = Integer.parseInt(parts[1]);
+					trace.height = Integer.parseInt(parts[2]);
+					trace.lon = Double.parseDouble(parts[3]);
+					trace.lat = Double.parseDouble(parts[4]);
+					trace.zoom = Double.parseDouble(parts[5]);
+					trace.magnification = Float.parseFloat(parts[6]);
+					continue;
+				}
+				long time = Long.parseLong(parts[0]);
+				String type = parts[1];
+				if (type.equals("move")) {
+					trace.events.add(new GestureEvent(time, Type.MOVE,
+							Float.parseFloat(parts[2]),
+							Float.parseFloat(parts[3]), 0));
+				} else if (type.equals("zoom")) {
+					trace.events.add(new GestureEvent(time, Type.ZOOM,
+							Float.parseFloat(parts[2]),
+							Float.parseFloat(parts[3]),
+							Float.parseFloat(parts[4])));
+				} else if (type.equals("magnification")) {
+					trace.events.add(new GestureEvent(time,
+							Type.MAGNIFICATION, 0, 0,
+							Float.parseFloat(parts[2])));
+				} else {
+					throw new IOException(
+							"Unknown event in line " + number + ": " + type);
+				}
+			} catch (NumberFormatException
+					| ArrayIndexOutOfBoundsException e) {
+				throw new IOException("Invalid line " + number + ": " + line,
+						e);
+			}
+		}
+		return trace;
+	}
+
+}
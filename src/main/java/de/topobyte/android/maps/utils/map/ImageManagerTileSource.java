@@ -0,0 +1,74 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+import de.topobyte.android.mapview.ImageManagerSourceRam;
+import de.topobyte.android.mapview.ReferenceCountedBitmap;
+import de.topobyte.jeography.core.Tile;
+
+/**
+ * A {@link TileImageSource} backed by an image manager.
+ */
+public class ImageManagerTileSource
+		implements TileImageSource<ReferenceCountedBitmap>
+{
+
+	private final ImageManagerSourceRam<Tile, ReferenceCountedBitmap> imageManager;
+
+	public ImageManagerTileSource(
+			ImageManagerSourceRam<Tile, ReferenceCountedBitmap> imageManager)
+	{
+		this.imageManager = imageManager;
+	}
+
+	public ImageManagerSourceRam<Tile, ReferenceCountedBitmap> getImageManager()
+	{
+		return imageManager;
+	}
+
+	@Override
+	public void cancelJobs()
+	{
+		imageManager.cancelJobs();
+	}
+
+	@Override
+	public boolean cancelJob(Tile tile)
+	{
+		return imageManager.cancelJob(tile);
+	}
+
+	@Override
+	public void willNeed(Tile tile)
+	{
+		imageManager.willNeed(tile);
+	}
+
+	@Override
+	public ReferenceCountedBitmap get(Tile tile, int priority)
+	{
+		return imageManager.get(tile, priority);
+	}
+
+	@Override
+	public ReferenceCountedBitmap getButDoNotProduce(Tile tile)
+	{
+		return imageManager.getButDoNotProduce(tile);
+	}
+
+}
@@ -0,0 +1,77 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+import de.topobyte.jeography.core.Tile;
+import de.topobyte.jeography.core.mapwindow.SteplessMapWindow;
+
+/**
+ * Modifications of the map window in response to gestures, shared by
+ * {@link BaseMapView} and the replay of recorded gestures.
+ */
+public class MapGestures
+{
+
+	// Tiles are scaled up to this factor, beyond that the user scale applies
+	public static final float MAX_TILE_SCALE = 2;
+
+	/**
+	 * Zoom by the specified distance while keeping the location at the screen
+	 * point (x, y) fixed.
+	 */
+	public static void zoom(SteplessMapWindow mapWindow, float x, float y,
+			float zoomDistance)
+	{
+		// (lon, lat) that we want to keep fixed at the screen point (x, y)
+		double flon = mapWindow.getPositionLon(Math.round(x));
+		double flat = mapWindow.getPositionLat(Math.round(y));
+
+		double zoom = mapWindow.getZoom();
+		double targetZoom = zoom + zoomDistance;
+		if (targetZoom < mapWindow.getMinZoom()) {
+			targetZoom = mapWindow.getMinZoom();
+		}
+		if (targetZoom > mapWindow.getMaxZoom()) {
+			targetZoom = mapWindow.getMaxZoom();
+		}
+		mapWindow.zoom(targetZoom);
+
+		// (x, y) of the (lon, lat) after applying the zoom change
+		double fx = mapWindow.getX(flon);
+		double fy = mapWindow.getY(flat);
+		// shift the map to keep the (lon, lat) fixed
+		mapWindow.move((int) Math.round(fx - x), (int) Math.round(fy - y));
+	}
+
+	/**
+	 * @return the factor tiles get scaled by for the specified magnification.
+	 */
+	public static float getTileScaleFactor(float magnification)
+	{
+		return Math.min(magnification, MAX_TILE_SCALE);
+	}
+
+	/**
+	 * @return the size of tiles in pixels for the specified magnification.
+	 */
+	public static int getTileSize(float magnification)
+	{
+		return Math.round(getTileScaleFactor(magnification) * Tile.SIZE);
+	}
+
+}
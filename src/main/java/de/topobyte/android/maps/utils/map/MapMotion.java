@@ -0,0 +1,122 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+/**
+ * Estimates the velocity of the viewport from the pan and zoom gestures
+ * applied to the map window. Velocities are smoothed over consecutive events
+ * and drop to zero when no events arrive for a short while.
+ */
+public class MapMotion
+{
+
+	// Events further apart than this end a gesture
+	private static final long IDLE_NANOS = 100 * 1000000L;
+	// Weight of a new event in the smoothed velocity
+	private static final double SMOOTHING = 0.3;
+
+	private double vx = 0;
+	private double vy = 0;
+	private double vz = 0;
+
+	private long lastPan = Long.MIN_VALUE;
+	private long lastZoom = Long.MIN_VALUE;
+
+	/**
+	 * Record that the viewport has been moved by (dx, dy) pixels.
+	 * 
+	 * @param nanos
+	 *            the time of the event in nanoseconds.
+	 */
+	public void moved(int dx, int dy, long nanos)
+	{
+		if (isIdle(lastPan, nanos)) {
+			vx = 0;
+			vy = 0;
+		} else {
+			double dt = seconds(nanos - lastPan);
+			vx += SMOOTHING * (dx / dt - vx);
+			vy += SMOOTHING * (dy / dt - vy);
+		}
+		lastPan = nanos;
+	}
+
+	/**
+	 * Record that the zoom level has been changed by the specified distance.
+	 * 
+	 * @param nanos
+	 *            the time of the event in nanoseconds.
+	 */
+	public void zoomed(double zoomDistance, long nanos)
+	{
+		if (isIdle(lastZoom, nanos)) {
+			// the sign is all we know about a single event
+			vz = Math.signum(zoomDistance);
+		} else {
+			double dt = seconds(nanos - lastZoom);
+			vz += SMOOTHING * (zoomDistance / dt - vz);
+		}
+		lastZoom = nanos;
+	}
+
+	/**
+	 * @return the horizontal velocity of the viewport in pixels per second.
+	 */
+	public double getVelocityX(long nanos)
+	{
+		return isIdle(lastPan, nanos) ? 0 : vx;
+	}
+
+	/**
+	 * @return the vertical velocity of the viewport in pixels per second.
+	 */
+	public double getVelocityY(long nanos)
+	{
+		return isIdle(lastPan, nanos) ? 0 : vy;
+	}
+
+	/**
+	 * @return the zoom velocity in zoom levels per second, positive while
+	 *         zooming in.
+	 */
+	public double getZoomVelocity(long nanos)
+	{
+		return isIdle(lastZoom, nanos) ? 0 : vz;
+	}
+
+	public void reset()
+	{
+		vx = 0;
+		vy = 0;
+		vz = 0;
+		lastPan = Long.MIN_VALUE;
+		lastZoom = Long.MIN_VALUE;
+	}
+
+	private static boolean isIdle(long last, long nanos)
+	{
+		return last == Long.MIN_VALUE || nanos - last > IDLE_NANOS;
+	}
+
+	private static double seconds(long nanos)
+	{
+		// events delivered within the same millisecond count as one
+		return Math.max(nanos, 1000000L) / 1e9;
+	}
+
+}
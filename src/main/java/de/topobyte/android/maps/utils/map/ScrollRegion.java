@@ -0,0 +1,333 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import de.topobyte.jeography.core.Tile;
+
+/**
+ * Determines which parts of a scrolling back buffer of the tile layer need to
+ * be redrawn for a frame. The buffer has the size of the view and is addressed
+ * with wrap-around: a view pixel is stored at its position relative to a
+ * fixed origin, modulo the buffer size. A pure translation of the map by whole
+ * pixels then leaves all previously drawn pixels in place and only the newly
+ * exposed strips at the edges of the view need to be drawn. Tiles that changed,
+ * e.g. because their image has been loaded, are redrawn in place.
+ * 
+ * Each frame, {@link #update(TileRenderer)} computes the dirty rectangles in
+ * view coordinates. The rectangles are split at the wrap-around lines, so that
+ * each of them is stored contiguously in the buffer, starting at
+ * {@link #getBufferX(int)}, {@link #getBufferY(int)}.
+ */
+public class ScrollRegion implements DrawRegion
+{
+
+	// Shifts closer to whole pixels than this are treated as whole
+	private static final double EPSILON = 1e-3;
+
+	// More dirty rectangles than this cause a full redraw
+	private static final int MAX_RECTS = 64;
+
+	private boolean valid = false;
+	private int width;
+	private int height;
+	private int zoom;
+	private int tileSize;
+	private double tileScale;
+
+	// Position of the view in pixels of the current grid, last and rounded
+	private double viewX;
+	private double viewY;
+	private long originX;
+	private long originY;
+	// Position of the view's top left corner in the buffer
+	private int offsetX;
+	private int offsetY;
+
+	private int numRects = 0;
+	private final int[] rects = new int[4 * MAX_RECTS];
+	private boolean overflow = false;
+
+	// Tiles whose image changed, reported from loader threads
+	private final Queue<Tile> changed = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Redraw the tile area of the specified tile with the next frame. May be
+	 * called from any thread.
+	 */
+	public void invalidate(Tile tile)
+	{
+		changed.add(tile);
+	}
+
+	/**
+	 * Redraw the whole view with the next frame.
+	 */
+	public void invalidateAll()
+	{
+		valid = false;
+	}
+
+	/**
+	 * Compute the dirty rectangles for the current grid of the renderer.
+	 * 
+	 * @return whether the whole view needs to be redrawn.
+	 */
+	public boolean update(TileRenderer<?> renderer)
+	{
+		int w = renderer.getViewWidth();
+		int h = renderer.getViewHeight();
+		double scale = renderer.getTileScale();
+		double x = renderer.getWorldLeft() * scale;
+		double y = renderer.getWorldTop() * scale;
+
+		numRects = 0;
+		overflow = false;
+
+		boolean full = !valid || w != width || h != height
+				|| renderer.getTileZoom() != zoom
+				|| renderer.getTileSize() != tileSize || scale != tileScale;
+
+		if (!full) {
+			double dx = x - viewX;
+			double dy = y - viewY;
+			long sx = Math.round(dx);
+			long sy = Math.round(dy);
+			if (Math.abs(dx - sx) > EPSILON || Math.abs(dy - sy) > EPSILON
+					|| Math.abs(sx) >= w || Math.abs(sy) >= h) {
+				full = true;
+			} else {
+				originX += sx;
+				originY += sy;
+				updateOffsets();
+				addExposed((int) sx, (int) sy);
+				addChanged(renderer);
+				full = overflow;
+			}
+		}
+
+		viewX = x;
+		viewY = y;
+
+		if (full) {
+			valid = true;
+			width = w;
+			height = h;
+			zoom = renderer.getTileZoom();
+			tileSize = renderer.getTileSize();
+			tileScale = scale;
+			originX = Math.round(x);
+			originY = Math.round(y);
+			updateOffsets();
+			changed.clear();
+			numRects = 0;
+			overflow = false;
+			add(0, 0, w, h);
+		}
+		return full;
+	}
+
+	private void updateOffsets()
+	{
+		offsetX = (int) Math.floorMod(originX, (long) width);
+		offsetY = (int) Math.floorMod(originY, (long) height);
+	}
+
+	/*
+	 * Add the strips exposed by moving the view by (sx, sy) pixels. The strips
+	 * do not overlap.
+	 */
+	private void addExposed(int sx, int sy)
+	{
+		if (sx > 0) {
+			add(width - sx, 0, width, height);
+		} else if (sx < 0) {
+			add(0, 0, -sx, height);
+		}
+		int x1 = sx < 0 ? -sx : 0;
+		int x2 = sx > 0 ? width - sx : width;
+		if (sy > 0) {
+			add(x1, height - sy, x2, height);
+		} else if (sy < 0) {
+			add(x1, 0, x2, -sy);
+		}
+	}
+
+	private void addChanged(TileRenderer<?> renderer)
+	{
+		Tile tile;
+		while ((tile = changed.poll()) != null) {
+			// size of the tile at the zoom level of the grid
+			double size = Math.scalb((double) tileSize,
+					zoom - tile.getZoom());
+			double left = (tile.getTx() * size - renderer.getWorldLeft())
+					* tileScale;
+			double top = (tile.getTy() * size - renderer.getWorldTop())
+					* tileScale;
+			double right = left + size * tileScale;
+			double bottom = top + size * tileScale;
+			add((int) Math.floor(left), (int) Math.floor(top),
+					(int) Math.ceil(right), (int) Math.ceil(bottom));
+		}
+	}
+
+	/*
+	 * Add a rectangle in view coordinates, clipped to the view and split at the
+	 * wrap-around lines.
+	 */
+	private void add(int left, int top, int right, int bottom)
+	{
+		left = Math.max(left, 0);
+		top = Math.max(top, 0);
+		right = Math.min(right, width);
+		bottom = Math.min(bottom, height);
+		if (left >= right || top >= bottom) {
+			return;
+		}
+
+		int splitX = width - offsetX;
+		int splitY = height - offsetY;
+		if (left < splitX && splitX < right) {
+			add(left, top, splitX, bottom);
+			add(splitX, top, right, bottom);
+			return;
+		}
+		if (top < splitY && splitY < bottom) {
+			add(left, top, right, splitY);
+			add(left, splitY, right, bottom);
+			return;
+		}
+
+		if (numRects == MAX_RECTS) {
+			overflow = true;
+			return;
+		}
+		int i = numRects++ * 4;
+		rects[i] = left;
+		rects[i + 1] = top;
+		rects[i + 2] = right;
+		rects[i + 3] = bottom;
+	}
+
+	@Override
+	public boolean intersects(double left, double top, double right,
+			double bottom)
+	{
+		for (int i = 0; i < numRects * 4; i += 4) {
+			if (left < rects[i + 2] && right > rects[i]
+					&& top < rects[i + 3] && bottom > rects[i + 1]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of dirty rectangles of the current frame.
+	 */
+	public int getNumRects()
+	{
+		return numRects;
+	}
+
+	public int getLeft(int i)
+	{
+		return rects[i * 4];
+	}
+
+	public int getTop(int i)
+	{
+		return rects[i * 4 + 1];
+	}
+
+	public int getRight(int i)
+	{
+		return rects[i * 4 + 2];
+	}
+
+	public int getBottom(int i)
+	{
+		return rects[i * 4 + 3];
+	}
+
+	/**
+	 * @return the horizontal position in the buffer of the dirty rectangle's
+	 *         left edge.
+	 */
+	public int getBufferX(int i)
+	{
+		return bufferX(rects[i * 4]);
+	}
+
+	/**
+	 * @return the vertical position in the buffer of the dirty rectangle's top
+	 *         edge.
+	 */
+	public int getBufferY(int i)
+	{
+		return bufferY(rects[i * 4 + 1]);
+	}
+
+	/**
+	 * @return the horizontal position in the buffer of a pixel column of the
+	 *         view.
+	 */
+	public int bufferX(int x)
+	{
+		int bx = x + offsetX;
+		return bx >= width ? bx - width : bx;
+	}
+
+	/**
+	 * @return the vertical position in the buffer of a pixel row of the view.
+	 */
+	public int bufferY(int y)
+	{
+		int by = y + offsetY;
+		return by >= height ? by - height : by;
+	}
+
+	/**
+	 * @return the position in the buffer of the view's left edge.
+	 */
+	public int getOffsetX()
+	{
+		return offsetX;
+	}
+
+	/**
+	 * @return the position in the buffer of the view's top edge.
+	 */
+	public int getOffsetY()
+	{
+		return offsetY;
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+}
@@ -0,0 +1,196 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.PorterDuff;
+import android.graphics.Rect;
+
+/**
+ * Keeps the tile layer in an offscreen image of the size of the view and only
+ * draws the parts of it that changed since the previous frame, as determined by
+ * a {@link ScrollRegion}. When the map is moved by whole pixels, only the
+ * newly exposed strips at the edges of the view are drawn; tiles that have been
+ * invalidated are redrawn in place. The image is addressed with wrap-around, so
+ * moving the map does not copy any pixels within the image.
+ * 
+ * Use as the drawer of a {@link TileRenderer} whose draw region is
+ * {@link #getRegion()}, between {@link #begin(TileRenderer)} and
+ * {@link #draw(Canvas)}. Tile images are drawn to the image by the delegate,
+ * whose canvas needs to be the one returned by {@link #begin(TileRenderer)}.
+ * 
+ * Where dirty rectangles overlap, tiles are drawn more than once, so tile
+ * images with transparent parts may get blended with themselves there.
+ * 
+ * @param <I>
+ *            the type of tile images.
+ */
+public class TileBackBuffer<I> implements TileDrawer<I>
+{
+
+	private final TileDrawer<I> delegate;
+	private final ScrollRegion region = new ScrollRegion();
+
+	private Bitmap bitmap = null;
+	private Canvas canvas = null;
+	private int width;
+	private int height;
+
+	private final Rect src = new Rect();
+	private final Rect dst = new Rect();
+
+	public TileBackBuffer(TileDrawer<I> delegate)
+	{
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @return the region of the current frame that tiles need to be drawn to.
+	 */
+	public ScrollRegion getRegion()
+	{
+		return region;
+	}
+
+	/**
+	 * Prepare the image for drawing the tiles of the current frame, which is
+	 * the frame the renderer has last been set up for. Dirty parts of the image
+	 * are cleared.
+	 * 
+	 * @return the canvas the delegate needs to draw to.
+	 */
+	public Canvas begin(TileRenderer<?> renderer)
+	{
+		int w = renderer.getViewWidth();
+		int h = renderer.getViewHeight();
+		if (bitmap == null || w != width || h != height) {
+			recycle();
+			width = w;
+			height = h;
+			bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+			canvas = new Canvas(bitmap);
+		}
+
+		if (region.update(renderer)) {
+			bitmap.eraseColor(0);
+			return canvas;
+		}
+
+		for (int i = 0; i < region.getNumRects(); i++) {
+			int x = region.getBufferX(i);
+			int y = region.getBufferY(i);
+			canvas.save();
+			canvas.clipRect(x, y, x + region.getRight(i) - region.getLeft(i),
+					y + region.getBottom(i) - region.getTop(i));
+			canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+			canvas.restore();
+		}
+		return canvas;
+	}
+
+	@Override
+	public void draw(I image, int left, int top, int right, int bottom)
+	{
+		for (int i = 0; i < region.getNumRects(); i++) {
+			if (!clip(i, left, top, right, bottom)) {
+				continue;
+			}
+			delegate.draw(image, left, top, right, bottom);
+			canvas.restore();
+		}
+	}
+
+	@Override
+	public void draw(I image, int srcLeft, int srcTop, int srcRight,
+			int srcBottom, int left, int top, int right, int bottom)
+	{
+		for (int i = 0; i < region.getNumRects(); i++) {
+			if (!clip(i, left, top, right, bottom)) {
+				continue;
+			}
+			delegate.draw(image, srcLeft, srcTop, srcRight, srcBottom, left,
+					top, right, bottom);
+			canvas.restore();
+		}
+	}
+
+	/*
+	 * If the dirty rectangle intersects the specified rectangle, save the
+	 * canvas and set it up for drawing in view coordinates to the part of the
+	 * image that stores the dirty rectangle.
+	 */
+	private boolean clip(int i, int left, int top, int right, int bottom)
+	{
+		int rLeft = region.getLeft(i);
+		int rTop = region.getTop(i);
+		int rRight = region.getRight(i);
+		int rBottom = region.getBottom(i);
+		if (left >= rRight || right <= rLeft || top >= rBottom
+				|| bottom <= rTop) {
+			return false;
+		}
+		canvas.save();
+		canvas.translate(region.getBufferX(i) - rLeft,
+				region.getBufferY(i) - rTop);
+		canvas.clipRect(rLeft, rTop, rRight, rBottom);
+		return true;
+	}
+
+	/**
+	 * Draw the tile layer to the target canvas in view coordinates.
+	 */
+	public void draw(Canvas target)
+	{
+		bitmap.setDensity(target.getDensity());
+
+		// The view is stored in up to four parts, split at these positions
+		int splitX = width - region.getOffsetX();
+		int splitY = height - region.getOffsetY();
+		blit(target, 0, 0, splitX, splitY);
+		blit(target, splitX, 0, width, splitY);
+		blit(target, 0, splitY, splitX, height);
+		blit(target, splitX, splitY, width, height);
+	}
+
+	private void blit(Canvas target, int left, int top, int right, int bottom)
+	{
+		if (left >= right || top >= bottom) {
+			return;
+		}
+		int x = region.bufferX(left);
+		int y = region.bufferY(top);
+		src.set(x, y, x + right - left, y + bottom - top);
+		dst.set(left, top, right, bottom);
+		target.drawBitmap(bitmap, src, dst, null);
+	}
+
+	/**
+	 * Release the offscreen image. The next frame will be drawn completely.
+	 */
+	public void recycle()
+	{
+		region.invalidateAll();
+		if (bitmap != null) {
+			bitmap.recycle();
+			bitmap = null;
+			canvas = null;
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+/**
+ * Receives the tile images to draw from a {@link TileRenderer}. Coordinates
+ * are specified in pixels of the view.
+ * 
+ * @param <I>
+ *            the type of tile images.
+ */
+public interface TileDrawer<I>
+{
+
+	/**
+	 * Draw the whole image to the specified rectangle.
+	 */
+	public void draw(I image, int left, int top, int right, int bottom);
+
+	/**
+	 * Draw the specified region of the image to the specified rectangle.
+	 */
+	public void draw(I image, int srcLeft, int srcTop, int srcRight,
+			int srcBottom, int left, int top, int right, int bottom);
+
+}
@@ -0,0 +1,61 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+import de.topobyte.jeography.core.Tile;
+
+/**
+ * Provides tile images to a {@link TileRenderer}.
+ * 
+ * @param <I>
+ *            the type of tile images.
+ */
+public interface TileImageSource<I>
+{
+
+	/**
+	 * Cancel all pending requests for tile images.
+	 */
+	public void cancelJobs();
+
+	/**
+	 * Cancel the pending request for the image of the specified tile.
+	 * 
+	 * @return whether a pending request has been cancelled.
+	 */
+	public boolean cancelJob(Tile tile);
+
+	/**
+	 * Notify the source that the tile will be needed soon, so that it should
+	 * not be evicted from any cache.
+	 */
+	public void willNeed(Tile tile);
+
+	/**
+	 * @return the image of the tile if available. Otherwise the image gets
+	 *         requested with the specified priority, lower values first, and
+	 *         null is returned.
+	 */
+	public I get(Tile tile, int priority);
+
+	/**
+	 * @return the image of the tile if available without requesting it.
+	 */
+	public I getButDoNotProduce(Tile tile);
+
+}
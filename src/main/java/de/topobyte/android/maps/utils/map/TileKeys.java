@@ -0,0 +1,45 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+import de.topobyte.jeography.core.Tile;
+
+/**
+ * Encodes tile coordinates as single long values, which allows using
+ * primitive collections for tiles without allocating Tile objects.
+ */
+public class TileKeys
+{
+
+	private static final long MASK = (1L << 28) - 1;
+
+	/**
+	 * @return a key unique for zoom levels up to 127 and tile coordinates
+	 *         within +/- 2^27.
+	 */
+	public static long key(int zoom, int tx, int ty)
+	{
+		return ((long) zoom << 56) | ((tx & MASK) << 28) | (ty & MASK);
+	}
+
+	public static long key(Tile tile)
+	{
+		return key(tile.getZoom(), tile.getTx(), tile.getTy());
+	}
+
+}
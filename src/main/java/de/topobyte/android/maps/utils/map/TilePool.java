@@ -0,0 +1,71 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+import com.slimjars.dist.gnu.trove.map.hash.TLongObjectHashMap;
+
+import de.topobyte.jeography.core.Tile;
+
+/**
+ * Provides shared {@link Tile} instances for tile coordinates, so that tiles
+ * looked up repeatedly from frame to frame, such as fallback and prefetch
+ * tiles, do not need to be allocated for every lookup. Tiles are immutable,
+ * which makes sharing them safe.
+ * 
+ * The pool is cleared once it holds more than its capacity of tiles.
+ */
+public class TilePool
+{
+
+	private final int capacity;
+	private final TLongObjectHashMap<Tile> tiles;
+
+	public TilePool(int capacity)
+	{
+		this.capacity = capacity;
+		tiles = new TLongObjectHashMap<>(capacity);
+	}
+
+	/**
+	 * @return a tile with the specified coordinates.
+	 */
+	public Tile get(int zoom, int tx, int ty)
+	{
+		long key = TileKeys.key(zoom, tx, ty);
+		Tile tile = tiles.get(key);
+		if (tile == null) {
+			if (tiles.size() >= capacity) {
+				tiles.clear();
+			}
+			tile = new Tile(zoom, tx, ty);
+			tiles.put(key, tile);
+		}
+		return tile;
+	}
+
+	public int size()
+	{
+		return tiles.size();
+	}
+
+	public void clear()
+	{
+		tiles.clear();
+	}
+
+}
@@ -0,0 +1,53 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+/**
+ * Determines the order in which tile images get requested by a
+ * {@link TileRenderer}. Lower values are requested first.
+ */
+public interface TilePriorityPolicy
+{
+
+	/**
+	 * Prepare the computation of priorities for a frame.
+	 * 
+	 * @param width
+	 *            the width of the view in pixels.
+	 * @param height
+	 *            the height of the view in pixels.
+	 * @param vx
+	 *            the horizontal velocity of the viewport in pixels per second.
+	 * @param vy
+	 *            the vertical velocity of the viewport in pixels per second.
+	 */
+	public void setup(int width, int height, double vx, double vy);
+
+	/**
+	 * @param x
+	 *            the left edge of the tile on the view in pixels.
+	 * @param y
+	 *            the top edge of the tile on the view in pixels.
+	 * @param size
+	 *            the size of the tile on the view in pixels, i.e. after
+	 *            scaling.
+	 * @return the priority of the tile, a non-negative value.
+	 */
+	public int getPriority(double x, double y, double size);
+
+}
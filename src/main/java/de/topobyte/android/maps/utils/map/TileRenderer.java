@@ -0,0 +1,680 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import de.topobyte.jeography.core.Tile;
+import de.topobyte.jeography.core.mapwindow.SteplessMapWindow;
+import de.topobyte.jeography.core.mapwindow.SteppedMapWindow;
+
+/**
+ * Determines the tiles covering a map window, requests their images and
+ * passes the images to draw to a {@link TileDrawer}. Where the image of a tile
+ * is not available, the corresponding part of the nearest available ancestor
+ * is drawn instead, or, if there is none, the available descendants. The
+ * number of levels searched is configured with
+ * {@link #setFallbackLevels(int, int)}.
+ * 
+ * This class does not depend on the Android runtime, which allows to
+ * benchmark the per-frame work of {@link BaseMapView} on a plain JVM.
+ * 
+ * @param <I>
+ *            the type of tile images.
+ */
+public class TileRenderer<I>
+{
+
+	private TileImageSource<I> source;
+
+	private final TileRequestScheduler<I> scheduler;
+	private boolean incrementalRequests = true;
+
+	// Tiles whose requests failed, reported from loader threads
+	private final Queue<Tile> failed = new ConcurrentLinkedQueue<>();
+
+	private SteplessMapWindow mapWindow;
+	// Created once and updated in place on demand, see getTileMapWindow()
+	private SteppedMapWindow tileMapWindow;
+	private boolean tileMapWindowValid = false;
+	private double tileScale = 1;
+	private int viewWidth;
+	private int viewHeight;
+
+	// The grid of tiles covering the view: the tile zoom level, the position
+	// of the view's top left corner in world pixels at that level and the
+	// range of tiles covering the view
+	private int tileZoom;
+	private int tileSize;
+	private double worldLeft;
+	private double worldTop;
+	private int minTx, maxTx, minTy, maxTy;
+
+	// Restricts drawing to a part of the view if set
+	private DrawRegion drawRegion = null;
+
+	// Tiles looked up for fallbacks and prefetching
+	private final TilePool pool = new TilePool(4096);
+
+	private int fallbackAncestors = 4;
+	private int fallbackDescendants = 2;
+
+	private final MapMotion motion = new MapMotion();
+	private TilePriorityPolicy priorityPolicy = new VelocityTilePriority();
+
+	// Prefetched tiles are requested after all visible tiles
+	private static final int PREFETCH_PRIORITY = Integer.MAX_VALUE / 2;
+
+	private int prefetchBudget = 8;
+	// The best prefetch candidates of a frame, sorted by priority
+	private int numCandidates;
+	private int[] candidateZoom = new int[prefetchBudget];
+	private int[] candidateTx = new int[prefetchBudget];
+	private int[] candidateTy = new int[prefetchBudget];
+	private int[] candidatePriority = new int[prefetchBudget];
+
+	public TileRenderer(TileImageSource<I> source)
+	{
+		this.source = source;
+		scheduler = new TileRequestScheduler<>(source);
+	}
+
+	public void setSource(TileImageSource<I> source)
+	{
+		this.source = source;
+		scheduler.setSource(source);
+	}
+
+	public TileImageSource<I> getSource()
+	{
+		return source;
+	}
+
+	/**
+	 * Set up the tile window for the current state of the map window. The
+	 * tile window uses the integer zoom level closest to the map window's zoom
+	 * level and is scaled by {@link #getTileScale()} when drawn.
+	 * 
+	 * The tiles covering the window are computed arithmetically without
+	 * allocating any objects.
+	 */
+	public void setup(SteplessMapWindow mapWindow)
+	{
+		this.mapWindow = mapWindow;
+		tileMapWindowValid = false;
+
+		viewWidth = mapWindow.getWidth();
+		viewHeight = mapWindow.getHeight();
+
+		double realZoom = mapWindow.getZoom();
+		tileZoom = (int) Math.round(realZoom);
+		tileSize = mapWindow.getWorldScale();
+
+		tileScale = Math.pow(2, realZoom - tileZoom);
+
+		double worldSize = (double) tileSize * (1L << tileZoom);
+		double width = viewWidth / tileScale;
+		double height = viewHeight / tileScale;
+		worldLeft = mercatorX(mapWindow.getCenterLon()) * worldSize - width / 2;
+		worldTop = mercatorY(mapWindow.getCenterLat()) * worldSize - height / 2;
+
+		minTx = (int) Math.floor(worldLeft / tileSize);
+		minTy = (int) Math.floor(worldTop / tileSize);
+		maxTx = (int) Math.ceil((worldLeft + width) / tileSize) - 1;
+		maxTy = (int) Math.ceil((worldTop + height) / tileSize) - 1;
+	}
+
+	private static double mercatorX(double lon)
+	{
+		return (lon + 180) / 360;
+	}
+
+	private static double mercatorY(double lat)
+	{
+		double rad = Math.toRadians(lat);
+		return (1 - Math.log(Math.tan(rad) + 1 / Math.cos(rad)) / Math.PI) / 2;
+	}
+
+	/**
+	 * @return a stepped map window covering the current map window at the
+	 *         tile zoom level. The window is created on the first call and
+	 *         updated in place on the first call after each
+	 *         {@link #setup(SteplessMapWindow)}, so the same instance is
+	 *         returned for the lifetime of the renderer.
+	 */
+	public SteppedMapWindow getTileMapWindow()
+	{
+		if (tileMapWindowValid || mapWindow == null) {
+			return tileMapWindow;
+		}
+		int tileWindowWidth = (int) Math.ceil(viewWidth / tileScale);
+		int tileWindowHeight = (int) Math.ceil(viewHeight / tileScale);
+		if (tileMapWindow == null) {
+			tileMapWindow = new SteppedMapWindow(tileWindowWidth,
+					tileWindowHeight, tileZoom, mapWindow.getCenterLon(),
+					mapWindow.getCenterLat());
+		} else {
+			tileMapWindow.resize(tileWindowWidth, tileWindowHeight);
+			tileMapWindow.zoom(tileZoom);
+			tileMapWindow.gotoLonLat(mapWindow.getCenterLon(),
+					mapWindow.getCenterLat());
+		}
+		tileMapWindow.setTileSize(tileSize);
+		tileMapWindowValid = true;
+		return tileMapWindow;
+	}
+
+	public int getTileZoom()
+	{
+		return tileZoom;
+	}
+
+	/**
+	 * @return the size of tiles in pixels before scaling.
+	 */
+	public int getTileSize()
+	{
+		return tileSize;
+	}
+
+	public int getViewWidth()
+	{
+		return viewWidth;
+	}
+
+	public int getViewHeight()
+	{
+		return viewHeight;
+	}
+
+	/**
+	 * @return the position of the view's left edge in world pixels at the
+	 *         tile zoom level, before scaling.
+	 */
+	public double getWorldLeft()
+	{
+		return worldLeft;
+	}
+
+	/**
+	 * @return the position of the view's top edge in world pixels at the tile
+	 *         zoom level, before scaling.
+	 */
+	public double getWorldTop()
+	{
+		return worldTop;
+	}
+
+	public int getMinTileX()
+	{
+		return minTx;
+	}
+
+	public int getMaxTileX()
+	{
+		return maxTx;
+	}
+
+	public int getMinTileY()
+	{
+		return minTy;
+	}
+
+	public int getMaxTileY()
+	{
+		return maxTy;
+	}
+
+	/**
+	 * @return the position of the left edge of the tiles in column tx on the
+	 *         view.
+	 */
+	public double getTileX(int tx)
+	{
+		return ((double) tx * tileSize - worldLeft) * tileScale;
+	}
+
+	/**
+	 * @return the position of the top edge of the tiles in row ty on the view.
+	 */
+	public double getTileY(int ty)
+	{
+		return ((double) ty * tileSize - worldTop) * tileScale;
+	}
+
+	public double getTileScale()
+	{
+		return tileScale;
+	}
+
+	/**
+	 * Choose between incremental request scheduling (the default) and
+	 * cancelling all pending requests and requesting all missing tiles anew
+	 * for each frame.
+	 */
+	public void setIncrementalRequests(boolean incrementalRequests)
+	{
+		if (this.incrementalRequests && !incrementalRequests) {
+			scheduler.cancelAll();
+		}
+		this.incrementalRequests = incrementalRequests;
+	}
+
+	public boolean isIncrementalRequests()
+	{
+		return incrementalRequests;
+	}
+
+	public TileRequestScheduler<I> getScheduler()
+	{
+		return scheduler;
+	}
+
+	/**
+	 * Set the number of levels to search for ancestors and descendants of
+	 * tiles that are not available.
+	 */
+	public void setFallbackLevels(int ancestors, int descendants)
+	{
+		fallbackAncestors = ancestors;
+		fallbackDescendants = descendants;
+	}
+
+	public int getFallbackAncestors()
+	{
+		return fallbackAncestors;
+	}
+
+	public int getFallbackDescendants()
+	{
+		return fallbackDescendants;
+	}
+
+	/**
+	 * @return the motion tracker to report pan and zoom gestures to.
+	 */
+	public MapMotion getMotion()
+	{
+		return motion;
+	}
+
+	public void setPriorityPolicy(TilePriorityPolicy priorityPolicy)
+	{
+		this.priorityPolicy = priorityPolicy;
+	}
+
+	public TilePriorityPolicy getPriorityPolicy()
+	{
+		return priorityPolicy;
+	}
+
+	/**
+	 * Only draw tiles intersecting the specified region, or all tiles if null.
+	 * Requests are not affected.
+	 */
+	public void setDrawRegion(DrawRegion drawRegion)
+	{
+		this.drawRegion = drawRegion;
+	}
+
+	public DrawRegion getDrawRegion()
+	{
+		return drawRegion;
+	}
+
+	/**
+	 * Set the maximum number of tiles outside of the window to request per
+	 * frame while the viewport is moving. A budget of zero disables
+	 * prefetching.
+	 */
+	public void setPrefetchBudget(int prefetchBudget)
+	{
+		this.prefetchBudget = prefetchBudget;
+		candidateZoom = new int[prefetchBudget];
+		candidateTx = new int[prefetchBudget];
+		candidateTy = new int[prefetchBudget];
+		candidatePriority = new int[prefetchBudget];
+	}
+
+	public int getPrefetchBudget()
+	{
+		return prefetchBudget;
+	}
+
+	/**
+	 * Notify the renderer that the request for a tile has failed, so that it
+	 * gets requested again while it is visible. May be called from any thread.
+	 */
+	public void requestFailed(Tile tile)
+	{
+		failed.add(tile);
+	}
+
+	/**
+	 * Request the tiles of the current tile window and draw them.
+	 * 
+	 * @param tw
+	 *            the width of tiles in pixels before scaling.
+	 * @param th
+	 *            the height of tiles in pixels before scaling.
+	 */
+	public void render(TileDrawer<I> drawer, int tw, int th)
+	{
+		render(drawer, tw, th, System.nanoTime());
+	}
+
+	/**
+	 * Request the tiles of the current tile window and draw them.
+	 * 
+	 * @param tw
+	 *            the width of tiles in pixels before scaling.
+	 * @param th
+	 *            the height of tiles in pixels before scaling.
+	 * @param nanos
+	 *            the current time in the time base of the events reported to
+	 *            {@link #getMotion()}.
+	 */
+	public void render(TileDrawer<I> drawer, int tw, int th, long nanos)
+	{
+		double vx = motion.getVelocityX(nanos);
+		double vy = motion.getVelocityY(nanos);
+		priorityPolicy.setup(viewWidth, viewHeight, vx, vy);
+
+		if (!incrementalRequests) {
+			renderCancelAll(drawer, tw, th);
+		} else {
+			renderIncremental(drawer, tw, th);
+		}
+
+		prefetch(vx, vy, motion.getZoomVelocity(nanos), tw, th);
+
+		if (incrementalRequests) {
+			// cancel requests for tiles no longer needed
+			scheduler.finishFrame();
+		}
+	}
+
+	private void renderIncremental(TileDrawer<I> drawer, int tw, int th)
+	{
+		Tile tile;
+		while ((tile = failed.poll()) != null) {
+			scheduler.remove(tile);
+		}
+
+		for (int ty = minTy; ty <= maxTy; ty++) {
+			double y = getTileY(ty);
+			for (int tx = minTx; tx <= maxTx; tx++) {
+				double x = getTileX(tx);
+				Tile t = pool.get(tileZoom, tx, ty);
+
+				// renew current tile's cache status
+				source.willNeed(t);
+
+				I image = source.getButDoNotProduce(t);
+				if (image == null) {
+					// request if not already pending
+					int priority = priorityPolicy.getPriority(x, y,
+							tw * tileScale);
+					image = scheduler.request(t, priority);
+				}
+
+				draw(drawer, t, image, x, y, tw, th);
+			}
+		}
+	}
+
+	private void renderCancelAll(TileDrawer<I> drawer, int tw, int th)
+	{
+		failed.clear();
+
+		// first cancel pending jobs
+		source.cancelJobs();
+
+		// renew current tiles' cache status
+		for (int ty = minTy; ty <= maxTy; ty++) {
+			for (int tx = minTx; tx <= maxTx; tx++) {
+				source.willNeed(pool.get(tileZoom, tx, ty));
+			}
+		}
+
+		// draw all the tiles
+		for (int ty = minTy; ty <= maxTy; ty++) {
+			double y = getTileY(ty);
+			for (int tx = minTx; tx <= maxTx; tx++) {
+				double x = getTileX(tx);
+				Tile tile = pool.get(tileZoom, tx, ty);
+
+				// calculate priority
+				int priority = priorityPolicy.getPriority(x, y, tw * tileScale);
+
+				// request
+				I image = source.get(tile, priority);
+
+				draw(drawer, tile, image, x, y, tw, th);
+			}
+		}
+	}
+
+	/*
+	 * Request the tiles adjacent to the window in the direction of the motion
+	 * and the tiles of the next zoom level in the direction of zooming, up to
+	 * the prefetch budget, best priorities first.
+	 */
+	private void prefetch(double vx, double vy, double vz, int tw, int th)
+	{
+		if (prefetchBudget == 0 || (vx == 0 && vy == 0 && vz == 0)) {
+			return;
+		}
+		if (minTx > maxTx || minTy > maxTy) {
+			return;
+		}
+
+		int zoom = tileZoom;
+		numCandidates = 0;
+
+		// The ring of tiles ahead of the motion
+		if (vx != 0) {
+			int tx = vx > 0 ? maxTx + 1 : minTx - 1;
+			for (int ty = minTy - 1; ty <= maxTy + 1; ty++) {
+				offer(zoom, tx, ty, tw, th);
+			}
+		}
+		if (vy != 0) {
+			int ty = vy > 0 ? maxTy + 1 : minTy - 1;
+			int skip = vx > 0 ? maxTx + 1 : minTx - 1;
+			for (int tx = minTx - 1; tx <= maxTx + 1; tx++) {
+				if (vx == 0 || tx != skip) {
+					offer(zoom, tx, ty, tw, th);
+				}
+			}
+		}
+
+		// The tiles of the next zoom level
+		if (vz > 0 && zoom < mapWindow.getMaxZoom()) {
+			for (int tx = minTx * 2; tx <= maxTx * 2 + 1; tx++) {
+				for (int ty = minTy * 2; ty <= maxTy * 2 + 1; ty++) {
+					offer(zoom + 1, tx, ty, tw / 2.0, th / 2.0);
+				}
+			}
+		} else if (vz < 0 && zoom > mapWindow.getMinZoom()) {
+			for (int tx = minTx >> 1; tx <= maxTx >> 1; tx++) {
+				for (int ty = minTy >> 1; ty <= maxTy >> 1; ty++) {
+					offer(zoom - 1, tx, ty, tw * 2.0, th * 2.0);
+				}
+			}
+		}
+
+		for (int i = 0; i < numCandidates; i++) {
+			Tile tile = pool.get(candidateZoom[i], candidateTx[i],
+					candidateTy[i]);
+			int priority = PREFETCH_PRIORITY
+					+ Math.min(candidatePriority[i], PREFETCH_PRIORITY);
+			if (incrementalRequests) {
+				scheduler.request(tile, priority);
+			} else {
+				source.get(tile, priority);
+			}
+		}
+	}
+
+	/*
+	 * Add a tile to the prefetch candidates if it is among the best ones seen
+	 * so far and not available already.
+	 */
+	private void offer(int zoom, int tx, int ty, double w, double h)
+	{
+		int limit = 1 << zoom;
+		if (tx < 0 || ty < 0 || tx >= limit || ty >= limit) {
+			return;
+		}
+
+		double x = (tx * w - worldLeft) * tileScale;
+		double y = (ty * h - worldTop) * tileScale;
+		int priority = priorityPolicy.getPriority(x, y, w * tileScale);
+
+		int n = numCandidates;
+		if (n == prefetchBudget && priority >= candidatePriority[n - 1]) {
+			return;
+		}
+		if (source.getButDoNotProduce(pool.get(zoom, tx, ty)) != null) {
+			return;
+		}
+
+		// insert, dropping the worst candidate if full
+		int i = n == prefetchBudget ? n - 1 : n;
+		while (i > 0 && candidatePriority[i - 1] > priority) {
+			candidateZoom[i] = candidateZoom[i - 1];
+			candidateTx[i] = candidateTx[i - 1];
+			candidateTy[i] = candidateTy[i - 1];
+			candidatePriority[i] = candidatePriority[i - 1];
+			i--;
+		}
+		candidateZoom[i] = zoom;
+		candidateTx[i] = tx;
+		candidateTy[i] = ty;
+		candidatePriority[i] = priority;
+		if (n < prefetchBudget) {
+			numCandidates++;
+		}
+	}
+
+	private void draw(TileDrawer<I> drawer, Tile tile, I image, double x,
+			double y, int tw, int th)
+	{
+		if (drawRegion != null && !drawRegion.intersects(x, y,
+				x + tw * tileScale, y + th * tileScale)) {
+			return;
+		}
+		if (image != null) {
+			drawTile(drawer, image, x, y, tw, th);
+		} else {
+			boolean done = drawAncestor(drawer, tile, x, y, tw, th);
+			if (!done && fallbackDescendants > 0) {
+				drawDescendants(drawer, tile.getZoom(), tile.getTx(),
+						tile.getTy(), x, y, tw * tileScale, 1);
+			}
+		}
+	}
+
+	private void drawTile(TileDrawer<I> drawer, I image, double ddx,
+			double ddy, int tw, int th)
+	{
+		int left = (int) Math.round(ddx);
+		int top = (int) Math.round(ddy);
+		int right = (int) Math.round(ddx + tileScale * tw);
+		int bottom = (int) Math.round(ddy + tileScale * th);
+
+		drawer.draw(image, left, top, right, bottom);
+	}
+
+	/*
+	 * Draw the corresponding part of the nearest available ancestor of a tile,
+	 * up to fallbackAncestors levels above.
+	 */
+	private boolean drawAncestor(TileDrawer<I> drawer, Tile tile, double ddx,
+			double ddy, int tw, int th)
+	{
+		int zoom = tile.getZoom();
+		int tx = tile.getTx();
+		int ty = tile.getTy();
+		for (int d = 1; d <= fallbackAncestors && zoom - d >= 1; d++) {
+			Tile t = pool.get(zoom - d, tx >> d, ty >> d);
+			I image = source.getButDoNotProduce(t);
+			if (image == null) {
+				continue;
+			}
+
+			// position of the tile within the ancestor
+			int mask = (1 << d) - 1;
+			int fx = tx & mask;
+			int fy = ty & mask;
+
+			int srcLeft = (fx * tw) >> d;
+			int srcTop = (fy * th) >> d;
+			int srcRight = ((fx + 1) * tw) >> d;
+			int srcBottom = ((fy + 1) * th) >> d;
+
+			int left = (int) Math.round(ddx);
+			int top = (int) Math.round(ddy);
+			int right = (int) Math.round(ddx + tileScale * tw);
+			int bottom = (int) Math.round(ddy + tileScale * th);
+
+			drawer.draw(image, srcLeft, srcTop, srcRight, srcBottom, left, top,
+					right, bottom);
+			return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Fill the area of a tile with the available descendants, searching up to
+	 * fallbackDescendants levels below where a descendant is missing.
+	 */
+	private void drawDescendants(TileDrawer<I> drawer, int zoom, int tx,
+			int ty, double ddx, double ddy, double size, int level)
+	{
+		int z = zoom + 1;
+		double half = size / 2;
+		for (int i = 0; i < 2; i++) {
+			int cx = tx * 2 + i;
+			double dstLeft = ddx + i * half;
+			for (int k = 0; k < 2; k++) {
+				int cy = ty * 2 + k;
+				double dstTop = ddy + k * half;
+
+				I image = source.getButDoNotProduce(pool.get(z, cx, cy));
+				if (image == null) {
+					if (level < fallbackDescendants) {
+						drawDescendants(drawer, z, cx, cy, dstLeft, dstTop,
+								half, level + 1);
+					}
+					continue;
+				}
+
+				int left = (int) Math.round(dstLeft);
+				int top = (int) Math.round(dstTop);
+				int right = (int) Math.round(dstLeft + half);
+				int bottom = (int) Math.round(dstTop + half);
+
+				drawer.draw(image, left, top, right, bottom);
+			}
+		}
+	}
+
+}
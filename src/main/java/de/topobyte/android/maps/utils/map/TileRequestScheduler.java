@@ -0,0 +1,201 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+import com.slimjars.dist.gnu.trove.map.hash.TLongIntHashMap;
+import com.slimjars.dist.gnu.trove.map.hash.TLongObjectHashMap;
+import com.slimjars.dist.gnu.trove.procedure.TObjectProcedure;
+
+import de.topobyte.jeography.core.Tile;
+
+/**
+ * Keeps track of the tiles requested from a {@link TileImageSource} between
+ * frames, so that only tiles that became visible get requested and only
+ * requests for tiles that are no longer visible get cancelled, instead of
+ * cancelling and resubmitting all requests for every frame.
+ * 
+ * For each frame, call {@link #request(Tile, int)} for each visible tile that
+ * is not available and {@link #finishFrame()} once all tiles have been
+ * visited.
+ * 
+ * A tile that is requested again with a priority much more urgent than the
+ * one it has been submitted with, for example a prefetched tile that became
+ * visible, is cancelled and submitted again with the new priority.
+ * 
+ * @param <I>
+ *            the type of tile images.
+ */
+public class TileRequestScheduler<I>
+{
+
+	private TileImageSource<I> source;
+
+	// Tiles requested until the last frame and during the current frame
+	private TLongObjectHashMap<Tile> requested = new TLongObjectHashMap<>();
+	private TLongObjectHashMap<Tile> current = new TLongObjectHashMap<>();
+	// The priorities the tiles have been submitted with
+	private TLongIntHashMap requestedPriorities = new TLongIntHashMap();
+	private TLongIntHashMap currentPriorities = new TLongIntHashMap();
+
+	// Resubmit if the priority value dropped below this fraction
+	private static final int RESUBMIT_FACTOR = 4;
+
+	private long submitted = 0;
+	private long cancelled = 0;
+	private long resubmitted = 0;
+
+	private final TObjectProcedure<Tile> cancel = new TObjectProcedure<Tile>() {
+
+		@Override
+		public boolean execute(Tile tile)
+		{
+			if (source.cancelJob(tile)) {
+				cancelled++;
+			}
+			return true;
+		}
+
+	};
+
+	public TileRequestScheduler(TileImageSource<I> source)
+	{
+		this.source = source;
+	}
+
+	/**
+	 * Set the source to request tiles from, forgetting about all requests
+	 * made to the previous source.
+	 */
+	public void setSource(TileImageSource<I> source)
+	{
+		this.source = source;
+		requested.clear();
+		current.clear();
+		requestedPriorities.clear();
+		currentPriorities.clear();
+	}
+
+	/**
+	 * Request a visible tile that is not available. The tile is only
+	 * submitted to the source if it has not been requested during the
+	 * previous frame already, or if the priority is much more urgent than the
+	 * one it has been submitted with.
+	 * 
+	 * @param priority
+	 *            the priority, lower values are loaded first.
+	 * @return the image if it became available in the meantime, null
+	 *         otherwise.
+	 */
+	public I request(Tile tile, int priority)
+	{
+		long key = TileKeys.key(tile);
+		Tile known = requested.remove(key);
+		if (known != null) {
+			int submittedPriority = requestedPriorities.remove(key);
+			if (priority >= submittedPriority / RESUBMIT_FACTOR
+					|| !source.cancelJob(known)) {
+				current.put(key, known);
+				currentPriorities.put(key, submittedPriority);
+				return null;
+			}
+			resubmitted++;
+		} else {
+			submitted++;
+		}
+		current.put(key, tile);
+		currentPriorities.put(key, priority);
+		return source.get(tile, priority);
+	}
+
+	/**
+	 * Cancel the requests for tiles that have not been requested again during
+	 * the current frame.
+	 */
+	public void finishFrame()
+	{
+		requested.forEachValue(cancel);
+		requested.clear();
+		requestedPriorities.clear();
+
+		TLongObjectHashMap<Tile> swap = requested;
+		requested = current;
+		current = swap;
+
+		TLongIntHashMap swapPriorities = requestedPriorities;
+		requestedPriorities = currentPriorities;
+		currentPriorities = swapPriorities;
+	}
+
+	/**
+	 * Forget about a request, for example because it has finished or failed,
+	 * so that the tile gets requested again if it is still missing.
+	 */
+	public void remove(Tile tile)
+	{
+		long key = TileKeys.key(tile);
+		requested.remove(key);
+		requestedPriorities.remove(key);
+	}
+
+	/**
+	 * Forget about all requests and cancel them at the source.
+	 */
+	public void cancelAll()
+	{
+		source.cancelJobs();
+		requested.clear();
+		current.clear();
+		requestedPriorities.clear();
+		currentPriorities.clear();
+	}
+
+	/**
+	 * @return the number of tiles currently requested.
+	 */
+	public int size()
+	{
+		return requested.size();
+	}
+
+	/**
+	 * @return the total number of tiles submitted to the source.
+	 */
+	public long getSubmitted()
+	{
+		return submitted;
+	}
+
+	/**
+	 * @return the total number of tiles submitted again with a more urgent
+	 *         priority.
+	 */
+	public long getResubmitted()
+	{
+		return resubmitted;
+	}
+
+	/**
+	 * @return the total number of requests cancelled because their tiles left
+	 *         the viewport.
+	 */
+	public long getCancelled()
+	{
+		return cancelled;
+	}
+
+}
@@ -0,0 +1,75 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.map;
+
+/**
+ * Prioritizes tiles by the distance of their centers to a focus point. The
+ * focus point is the center of the view, shifted in the direction the
+ * viewport is moving to the position it will reach within the look-ahead
+ * time, but not beyond the edges of the view. With a look-ahead of zero or a
+ * resting viewport, tiles are prioritized by the distance to the center.
+ */
+public class VelocityTilePriority implements TilePriorityPolicy
+{
+
+	private final double lookAhead;
+
+	private double focusX;
+	private double focusY;
+
+	/**
+	 * Create a policy with a look-ahead of 250 ms.
+	 */
+	public VelocityTilePriority()
+	{
+		this(0.25);
+	}
+
+	/**
+	 * @param lookAhead
+	 *            the look-ahead time in seconds.
+	 */
+	public VelocityTilePriority(double lookAhead)
+	{
+		this.lookAhead = lookAhead;
+	}
+
+	@Override
+	public void setup(int width, int height, double vx, double vy)
+	{
+		double midX = width / 2.0;
+		double midY = height / 2.0;
+		focusX = midX + clamp(vx * lookAhead, midX);
+		focusY = midY + clamp(vy * lookAhead, midY);
+	}
+
+	@Override
+	public int getPriority(double x, double y, double size)
+	{
+		double dx = x + size / 2 - focusX;
+		double dy = y + size / 2 - focusY;
+		double dist = dx * dx + dy * dy;
+		return (int) Math.min(dist, Integer.MAX_VALUE);
+	}
+
+	private static double clamp(double value, double max)
+	{
+		return Math.max(-max, Math.min(max, value));
+	}
+
+}
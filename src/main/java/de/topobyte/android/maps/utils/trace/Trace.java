@@ -0,0 +1,72 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.trace;
+
+/**
+ * Entry point for recording trace events from the map and label components.
+ * Tracing is disabled until a recorder is set, in which case recording an
+ * event only reads a volatile field.
+ */
+public class Trace
+{
+
+	private static volatile TraceRecorder recorder = null;
+
+	/**
+	 * Set the recorder to use or null to disable tracing.
+	 */
+	public static void setRecorder(TraceRecorder recorder)
+	{
+		Trace.recorder = recorder;
+	}
+
+	public static TraceRecorder getRecorder()
+	{
+		return recorder;
+	}
+
+	public static boolean isEnabled()
+	{
+		return recorder != null;
+	}
+
+	public static void begin(String name)
+	{
+		TraceRecorder recorder = Trace.recorder;
+		if (recorder != null) {
+			recorder.begin(name);
+		}
+	}
+
+	public static void end(String name)
+	{
+		TraceRecorder recorder = Trace.recorder;
+		if (recorder != null) {
+			recorder.end(name);
+		}
+	}
+
+	public static void instant(String name)
+	{
+		TraceRecorder recorder = Trace.recorder;
+		if (recorder != null) {
+			recorder.instant(name);
+		}
+	}
+
+}
@@ -0,0 +1,224 @@
+// Copyright 2021 Sebastian Kuerten
+//
+// This file is part of android-map-utils.
+//
+// android-map-utils is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published by
+// the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// android-map-utils is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with android-map-utils. If not, see <http://www.gnu.org/licenses/>.
+
+package de.topobyte.android.maps.utils.trace;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records begin, end and instant events into a ring buffer that is allocated
+ * once, so that recording does not allocate memory. When the buffer is full,
+ * the oldest events get overwritten.
+ * 
+ * The buffer can be exported in the Chrome trace-event JSON format, which can
+ * be opened with chrome://tracing or the Perfetto UI. Event names should be
+ * constants, the recorder keeps references to them until they are
+ * overwritten.
+ * 
+ * Recording is safe from any number of threads. Exporting while events are
+ * recorded may produce a few inconsistent events, so pause recording by
+ * removing the recorder from {@link Trace} before exporting.
+ */
+public class TraceRecorder
+{
+
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+
+	private static final byte PHASE_BEGIN = 'B';
+	private static final byte PHASE_END = 'E';
+	private static final byte PHASE_INSTANT = 'i';
+
+	private static class ThreadInfo
+	{
+
+		final long id;
+		final String name;
+
+		ThreadInfo(long id, String name)
+		{
+			this.id = id;
+			this.name = name;
+		}
+
+	}
+
+	private final int mask;
+	private final String[] names;
+	private final byte[] phases;
+	private final long[] times;
+	private final long[] threads;
+	private final AtomicLong next = new AtomicLong();
+
+	private final List<ThreadInfo> threadInfos = new ArrayList<>();
+	private final ThreadLocal<ThreadInfo> threadInfo = new ThreadLocal<ThreadInfo>() {
+
+		@Override
+		protected ThreadInfo initialValue()
+		{
+			Thread thread = Thread.currentThread();
+			ThreadInfo info = new ThreadInfo(thread.getId(), thread.getName());
+			synchronized (threadInfos) {
+				threadInfos.add(info);
+			}
+			return info;
+		}
+
+	};
+
+	private final long origin = System.nanoTime();
+
+	public TraceRecorder()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            the number of events to keep, rounded up to a power of two.
+	 */
+	public TraceRecorder(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		mask = size - 1;
+		names = new String[size];
+		phases = new byte[size];
+		times = new long[size];
+		threads = new long[size];
+	}
+
+	public void begin(String name)
+	{
+		record(name, PHASE_BEGIN);
+	}
+
+	public void end(String name)
+	{
+		record(name, PHASE_END);
+	}
+
+	public void instant(String name)
+	{
+		record(name, PHASE_INSTANT);
+	}
+
+	private void record(String name, byte phase)
+	{
+		long time = System.nanoTime();
+		long thread = threadInfo.get().id;
+		int slot = (int) (next.getAndIncrement() & mask);
+		names[slot] = name;
+		phases[slot] = phase;
+		times[slot] = time;
+		threads[slot] = thread;
+	}
+
+	/**
+	 * @return the number of events currently held by the buffer.
+	 */
+	public int size()
+	{
+		return (int) Math.min(next.get(), mask + 1);
+	}
+
+	/**
+	 * @return the number of events overwritten because the buffer was full.
+	 */
+	public long getOverwritten()
+	{
+		return Math.max(0, next.get() - (mask + 1));
+	}
+
+	public void clear()
+	{
+		next.set(0);
+	}
+
+	/**
+	 * Write the buffered events, oldest first, as a Chrome trace-event JSON
+	 * object.
+	 */
+	public void writeJson(Writer writer) throws IOException
+	{
+		long end = next.get();
+		long start = Math.max(0, end - (mask + 1));
+
+		writer.write("{\"traceEvents\":[");
+		boolean first = true;
+		synchronized (threadInfos) {
+			for (ThreadInfo info : threadInfos) {
+				if (!first) {
+					writer.write(",\n");
+				}
+				first = false;
+				writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":");
+				writer.write(Long.toString(info.id));
+				writer.write(",\"args\":{\"name\":");
+				writeString(writer, info.name);
+				writer.write("}}");
+			}
+		}
+		for (long i = start; i < end; i++) {
+			int slot = (int) (i & mask);
+			if (!first) {
+				writer.write(",\n");
+			}
+			first = false;
+			writer.write("{\"name\":");
+			writeString(writer, names[slot]);
+			writer.write(",\"ph\":\"");
+			writer.write((char) phases[slot]);
+			writer.write("\",\"ts\":");
+			long nanos = times[slot] - origin;
+			writer.write(Long.toString(nanos / 1000));
+			writer.write('.');
+			writer.write(String.format("%03d", Math.abs(nanos % 1000)));
+			writer.write(",\"pid\":1,\"tid\":");
+			writer.write(Long.toString(threads[slot]));
+			if (phases[slot] == PHASE_INSTANT) {
+				writer.write(",\"s\":\"t\"");
+			}
+			writer.write('}');
+		}
+		writer.write("],\"displayTimeUnit\":\"ms\"}\n");
+		writer.flush();
+	}
+
+	private static void writeString(Writer writer, String string)
+			throws IOException
+	{
+		writer.write('"');
+		if (string != null) {
+			for (int i = 0; i < string.length(); i++) {
+				char c = string.charAt(i);
+				if (c == '"' || c == '\\') {
+					writer.write('\\');
+					writer.write(c);
+				} else if (c < 0x20) {
+					writer.write(String.format("\\u%04x", (int) c));
+				} else {
+					writer.write(c);
+				}
+			}
+		}
+		writer.write('"');
+	}
+
+}